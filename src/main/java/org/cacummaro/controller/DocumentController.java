@@ -5,9 +5,18 @@ import org.cacummaro.domain.ProcessingStatus;
 import org.cacummaro.dto.IngestRequest;
 import org.cacummaro.dto.IngestResponse;
 import org.cacummaro.repository.CategoryRepository;
+import org.cacummaro.repository.CursorPage;
 import org.cacummaro.service.DocumentService;
 import org.cacummaro.service.DocumentServiceException;
 import org.cacummaro.service.EnhancedDocumentService;
+import org.cacummaro.service.changes.ChangesFeedFollower;
+import org.cacummaro.service.pdf.ExtractedTextService;
+import org.cacummaro.service.search.FacetedSearchRequest;
+import org.cacummaro.service.search.SearchHit;
+import org.cacummaro.service.search.SearchIndexService;
+import org.cacummaro.service.similar.SimilarDocumentIndex;
+import org.cacummaro.service.suggest.Suggestion;
+import org.cacummaro.service.suggest.TitleSuggestService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
@@ -25,15 +34,33 @@ import java.util.Optional;
 public class DocumentController {
 
     private static final int MAX_PAGE_SIZE = 1000;
+    private static final int MAX_SUGGESTIONS = 50;
 
     private final DocumentService documentService;
     private final EnhancedDocumentService enhancedDocumentService;
     private final CategoryRepository categoryRepository;
+    private final SearchIndexService searchIndexService;
+    private final ChangesFeedFollower changesFeedFollower;
+    private final TitleSuggestService titleSuggestService;
+    private final SimilarDocumentIndex similarDocumentIndex;
+    private final ExtractedTextService extractedTextService;
 
     @Autowired
-    public DocumentController(DocumentService documentService, CategoryRepository categoryRepository) {
+    public DocumentController(
+            DocumentService documentService,
+            CategoryRepository categoryRepository,
+            SearchIndexService searchIndexService,
+            ChangesFeedFollower changesFeedFollower,
+            TitleSuggestService titleSuggestService,
+            SimilarDocumentIndex similarDocumentIndex,
+            ExtractedTextService extractedTextService) {
         this.documentService = documentService;
         this.categoryRepository = categoryRepository;
+        this.searchIndexService = searchIndexService;
+        this.changesFeedFollower = changesFeedFollower;
+        this.titleSuggestService = titleSuggestService;
+        this.similarDocumentIndex = similarDocumentIndex;
+        this.extractedTextService = extractedTextService;
         // Cast to get access to enhanced features
         this.enhancedDocumentService = (EnhancedDocumentService) documentService;
     }
@@ -57,6 +84,24 @@ public class DocumentController {
         return ResponseEntity.ok(documents);
     }
 
+    @GetMapping("/documents/scroll")
+    public ResponseEntity<?> scrollDocuments(
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "20") int size) {
+        try {
+            int pageSize = Math.max(1, Math.min(size, MAX_PAGE_SIZE));
+            CursorPage<Document> page = documentService.scrollDocuments(cursor, pageSize);
+            return ResponseEntity.ok(page);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(new ErrorResponse(e.getMessage()));
+        }
+    }
+
+    @GetMapping("/documents/count")
+    public ResponseEntity<?> countDocuments() {
+        return ResponseEntity.ok(java.util.Map.of("count", documentService.countDocuments()));
+    }
+
     @GetMapping("/documents/{id}")
     public ResponseEntity<?> getDocument(@PathVariable String id) {
         Optional<Document> document = documentService.getDocument(id);
@@ -110,6 +155,33 @@ public class DocumentController {
         }
     }
 
+    /**
+     * Related reading: documents with the closest stored TF-IDF vectors
+     *
+     * Vectors are computed from the search index at ingest and reclassification, so documents
+     * stored while search was disabled have none and get a 409.
+     *
+     * GET /api/v1/documents/{id}/similar?limit=10
+     */
+    @GetMapping("/documents/{id}/similar")
+    public ResponseEntity<?> getSimilarDocuments(
+            @PathVariable String id,
+            @RequestParam(defaultValue = "10") int limit) {
+        Optional<Document> document = documentService.getDocument(id);
+        if (document.isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
+        if (!similarDocumentIndex.isEnabled()) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .body(new ErrorResponse("Similar documents are disabled"));
+        }
+        if (document.get().getTermVector() == null || document.get().getTermVector().isEmpty()) {
+            return ResponseEntity.status(HttpStatus.CONFLICT)
+                    .body(new ErrorResponse("Document has no term vector; reclassify it to compute one"));
+        }
+        return ResponseEntity.ok(similarDocumentIndex.findSimilar(document.get(), Math.min(limit, MAX_SUGGESTIONS)));
+    }
+
     @GetMapping("/documents/{id}/status")
     public ResponseEntity<?> getProcessingStatus(@PathVariable String id) {
         ProcessingStatus status = enhancedDocumentService.getProcessingStatus(id);
@@ -159,10 +231,92 @@ public class DocumentController {
     }
 
     @GetMapping("/search")
-    public ResponseEntity<Page<Document>> searchDocuments(
+    public ResponseEntity<?> searchDocuments(
             @RequestParam String q, Pageable pageable) {
-        Page<Document> documents = documentService.searchDocuments(q, pageable);
-        return ResponseEntity.ok(documents);
+        try {
+            Page<SearchHit> hits = documentService.searchDocuments(q, pageable);
+            return ResponseEntity.ok(hits);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(new ErrorResponse(e.getMessage()));
+        }
+    }
+
+    /**
+     * Type-ahead suggestions over document titles and category names
+     *
+     * GET /api/v1/suggest?q=mach&limit=10
+     */
+    @GetMapping("/suggest")
+    public ResponseEntity<List<Suggestion>> suggest(
+            @RequestParam String q,
+            @RequestParam(defaultValue = "10") int limit) {
+        return ResponseEntity.ok(titleSuggestService.suggest(q, Math.min(limit, MAX_SUGGESTIONS)));
+    }
+
+    /**
+     * Search with category, host and capture-month facets
+     *
+     * GET /api/v1/search/facets?q=...&category=...&host=...&month=2024-05&from=2024-01-01&to=2024-06-30
+     * Repeat a facet parameter to match any of several values. from/to accept ISO dates or instants.
+     */
+    @GetMapping("/search/facets")
+    public ResponseEntity<?> facetedSearch(
+            @RequestParam(required = false) String q,
+            @RequestParam(required = false) List<String> category,
+            @RequestParam(required = false) List<String> host,
+            @RequestParam(required = false) List<String> month,
+            @RequestParam(required = false) String from,
+            @RequestParam(required = false) String to,
+            Pageable pageable) {
+        if (!searchIndexService.isAvailable()) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .body(new ErrorResponse("Search index is not available"));
+        }
+        try {
+            FacetedSearchRequest request = new FacetedSearchRequest(q, category, host, month,
+                    parseDateBound(from, false), parseDateBound(to, true));
+            return ResponseEntity.ok(searchIndexService.facetedSearch(request, pageable));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(new ErrorResponse(e.getMessage()));
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(new ErrorResponse("Faceted search failed: " + e.getMessage()));
+        }
+    }
+
+    @PostMapping("/admin/rebuild-search-index")
+    public ResponseEntity<?> rebuildSearchIndex() {
+        try {
+            long indexed = searchIndexService.rebuild();
+
+            java.util.Map<String, Object> response = new java.util.HashMap<>();
+            response.put("message", "Search index rebuilt successfully");
+            response.put("documentsIndexed", indexed);
+            return ResponseEntity.ok(response);
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(new ErrorResponse("Failed to rebuild search index: " + e.getMessage()));
+        }
+    }
+
+    @PostMapping("/admin/backfill-text-cache")
+    public ResponseEntity<?> backfillTextCache() {
+        try {
+            long cached = extractedTextService.backfill();
+
+            java.util.Map<String, Object> response = new java.util.HashMap<>();
+            response.put("message", "Text cache backfilled successfully");
+            response.put("documentsCached", cached);
+            return ResponseEntity.ok(response);
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(new ErrorResponse("Failed to backfill text cache: " + e.getMessage()));
+        }
+    }
+
+    @GetMapping("/admin/changes-feed")
+    public ResponseEntity<java.util.Map<String, Object>> getChangesFeedStatus() {
+        return ResponseEntity.ok(changesFeedFollower.getStatus());
     }
 
     @GetMapping("/admin/rebuild-categories")
@@ -218,6 +372,23 @@ public class DocumentController {
         }
     }
 
+    private static java.time.Instant parseDateBound(String value, boolean endOfDay) {
+        if (value == null || value.isBlank()) {
+            return null;
+        }
+        try {
+            if (value.length() == 10) {
+                java.time.LocalDate date = java.time.LocalDate.parse(value);
+                return endOfDay
+                        ? date.plusDays(1).atStartOfDay(java.time.ZoneOffset.UTC).toInstant().minusMillis(1)
+                        : date.atStartOfDay(java.time.ZoneOffset.UTC).toInstant();
+            }
+            return java.time.Instant.parse(value);
+        } catch (java.time.format.DateTimeParseException e) {
+            throw new IllegalArgumentException("Invalid date: " + value);
+        }
+    }
+
     private String getCategoryDescription(String categoryName) {
         switch (categoryName.toLowerCase()) {
             case "technology":
@@ -0,0 +1,100 @@
+package org.cacummaro.controller;
+
+import org.cacummaro.service.transfer.DocumentExportService;
+import org.cacummaro.service.transfer.DocumentImportService;
+import org.cacummaro.service.transfer.ImportReport;
+import org.cacummaro.service.transfer.TransferFormat;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * REST controller for bulk corpus export and import
+ */
+@RestController
+@RequestMapping("/api/v1/documents")
+@CrossOrigin(origins = "*")
+public class DocumentTransferController {
+
+    private static final DateTimeFormatter FILE_TIMESTAMP =
+            DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss").withZone(ZoneOffset.UTC);
+
+    private final DocumentExportService exportService;
+    private final DocumentImportService importService;
+
+    @Autowired
+    public DocumentTransferController(DocumentExportService exportService, DocumentImportService importService) {
+        this.exportService = exportService;
+        this.importService = importService;
+    }
+
+    /**
+     * Stream every document to the response
+     *
+     * GET /api/v1/documents/export?format=ndjson|zip
+     *
+     * The body is written while the corpus is paged through, so nothing is buffered
+     * in memory. The zip format also carries the PDFs and other attachments.
+     *
+     * @param format Export format (default ndjson)
+     * @param response Servlet response the export is written to
+     * @throws IOException if the client connection fails mid-stream
+     */
+    @GetMapping("/export")
+    public void exportDocuments(
+            @RequestParam(defaultValue = "ndjson") String format,
+            HttpServletResponse response) throws IOException {
+
+        TransferFormat transferFormat;
+        try {
+            transferFormat = TransferFormat.fromString(format);
+        } catch (IllegalArgumentException e) {
+            response.sendError(HttpStatus.BAD_REQUEST.value(), e.getMessage());
+            return;
+        }
+
+        String fileName = "cacummaro-export-" + FILE_TIMESTAMP.format(Instant.now())
+                + "." + transferFormat.getExtension();
+        response.setContentType(transferFormat.getContentType());
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + fileName + "\"");
+
+        exportService.export(transferFormat, response.getOutputStream());
+    }
+
+    /**
+     * Import documents from an export stream
+     *
+     * POST /api/v1/documents/import?format=ndjson|zip
+     *
+     * The request body is read as a stream and written to CouchDB in _bulk_docs batches.
+     * Documents that already exist are reported as conflicts rather than overwritten.
+     *
+     * @param format Import format (default ndjson)
+     * @param request Servlet request whose body holds the export
+     * @return Import report with per-item failures
+     */
+    @PostMapping("/import")
+    public ResponseEntity<?> importDocuments(
+            @RequestParam(defaultValue = "ndjson") String format,
+            HttpServletRequest request) {
+        try {
+            TransferFormat transferFormat = TransferFormat.fromString(format);
+            ImportReport report = importService.importDocuments(transferFormat, request.getInputStream());
+            return ResponseEntity.ok(report);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(new DocumentController.ErrorResponse(e.getMessage()));
+        } catch (IOException e) {
+            return ResponseEntity.badRequest()
+                    .body(new DocumentController.ErrorResponse("Failed to read import stream: " + e.getMessage()));
+        }
+    }
+}
@@ -1,20 +1,19 @@
 package org.cacummaro.controller;
 
-import org.cacummaro.domain.Document;
-import org.cacummaro.repository.DocumentRepository;
 import org.cacummaro.service.classification.MachineLearningClassifier;
+import org.cacummaro.service.classification.TrainingJob;
+import org.cacummaro.service.classification.TrainingJobService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.domain.PageRequest;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
 
 /**
  * REST controller for Machine Learning classifier operations
@@ -26,23 +25,24 @@ public class MachineLearningController {
     private static final Logger logger = LoggerFactory.getLogger(MachineLearningController.class);
 
     private final MachineLearningClassifier mlClassifier;
-    private final DocumentRepository documentRepository;
+    private final TrainingJobService trainingJobService;
 
     @Autowired
-    public MachineLearningController(
-            MachineLearningClassifier mlClassifier,
-            DocumentRepository documentRepository) {
+    public MachineLearningController(MachineLearningClassifier mlClassifier, TrainingJobService trainingJobService) {
         this.mlClassifier = mlClassifier;
-        this.documentRepository = documentRepository;
+        this.trainingJobService = trainingJobService;
     }
 
     /**
-     * Train the ML model on existing categorized documents
+     * Start training the ML model on existing categorized documents
      *
-     * GET /api/v1/ml/train
+     * POST /api/v1/ml/train
      *
-     * @param maxDocuments Maximum number of documents to use for training (optional)
-     * @return Training result with status and metrics
+     * Training runs as a background job; poll GET /api/v1/ml/train/{jobId} for progress.
+     * Only one job runs at a time.
+     *
+     * @param maxDocuments Maximum number of categorized documents to train on; 0 for all (optional)
+     * @return The queued job, or 409 if a job is already running
      */
     @PostMapping("/train")
     public ResponseEntity<Map<String, Object>> trainModel(
@@ -54,41 +54,134 @@ public class MachineLearningController {
         }
 
         try {
-            logger.info("Starting ML model training with max {} documents", maxDocuments);
-
-            // Fetch categorized documents from repository
-            List<Document> allDocuments = documentRepository.findAll(PageRequest.of(0, maxDocuments)).getContent();
-
-            // Filter documents that have categories
-            List<Document> categorizedDocs = allDocuments.stream()
-                    .filter(doc -> doc.getCategories() != null && !doc.getCategories().isEmpty())
-                    .filter(doc -> doc.getPdfAttachmentName() != null)
-                    .collect(Collectors.toList());
-
-            if (categorizedDocs.isEmpty()) {
-                return ResponseEntity.status(HttpStatus.BAD_REQUEST)
-                        .body(createResponse(false, "No categorized documents found for training", null));
-            }
+            TrainingJob job = trainingJobService.start(maxDocuments);
+            return ResponseEntity.status(HttpStatus.ACCEPTED)
+                    .body(createResponse(true, "Training job started", job.getStatus()));
+        } catch (IllegalStateException e) {
+            Map<String, Object> current = trainingJobService.getCurrentJob()
+                    .map(TrainingJob::getStatus)
+                    .orElse(null);
+            return ResponseEntity.status(HttpStatus.CONFLICT)
+                    .body(createResponse(false, e.getMessage(), current));
+        }
+    }
 
-            logger.info("Found {} categorized documents for training", categorizedDocs.size());
+    /**
+     * Get the progress of a training or evaluation job
+     *
+     * GET /api/v1/ml/train/{jobId}
+     *
+     * @param jobId Job id returned when training or evaluation was started
+     * @return Job phase, counts and ETA; 404 if the job is neither running nor the last one
+     */
+    @GetMapping("/train/{jobId}")
+    public ResponseEntity<Map<String, Object>> getTrainingJob(@PathVariable String jobId) {
+        return trainingJobService.getJob(jobId)
+                .map(job -> ResponseEntity.ok(createResponse(true, "Training job " + job.getPhase(), job.getStatus())))
+                .orElseGet(() -> ResponseEntity.status(HttpStatus.NOT_FOUND)
+                        .body(createResponse(false, "Training job not found: " + jobId, null)));
+    }
 
-            // Train the model
-            mlClassifier.train(categorizedDocs);
+    /**
+     * Cancel a running training or evaluation job; the current model is kept
+     *
+     * POST /api/v1/ml/train/{jobId}/cancel
+     *
+     * @param jobId Job id returned when training or evaluation was started
+     * @return The job, or 404 if it is not running
+     */
+    @PostMapping("/train/{jobId}/cancel")
+    public ResponseEntity<Map<String, Object>> cancelTrainingJob(@PathVariable String jobId) {
+        return trainingJobService.cancel(jobId)
+                .map(job -> ResponseEntity.ok(createResponse(true, "Cancellation requested", job.getStatus())))
+                .orElseGet(() -> ResponseEntity.status(HttpStatus.NOT_FOUND)
+                        .body(createResponse(false, "No running training job with id " + jobId, null)));
+    }
 
-            // Prepare response
-            Map<String, Object> metrics = new HashMap<>();
-            metrics.put("documentsProcessed", categorizedDocs.size());
-            metrics.put("categoriesLearned", mlClassifier.getCategories().size());
-            metrics.put("categories", mlClassifier.getCategories());
+    /**
+     * Evaluate the current ML settings on held-out documents
+     *
+     * POST /api/v1/ml/evaluate
+     *
+     * Trains a throwaway model per split and reports per-category precision, recall and F1, a
+     * confusion matrix, and classification throughput and latency percentiles. The current
+     * model is not changed. Runs as a background job like training, and not alongside one;
+     * poll GET /api/v1/ml/train/{jobId} for progress and the report, and cancel it the same way.
+     *
+     * @param folds Number of stratified folds; 1 for a single holdout split (optional)
+     * @param testFraction Share of each category held out when folds is 1 (optional)
+     * @param maxDocuments Maximum number of categorized documents to use; 0 for all (optional)
+     * @return The queued job, 400 for invalid parameters, or 409 if a job is already running
+     */
+    @PostMapping("/evaluate")
+    public ResponseEntity<Map<String, Object>> evaluateModel(
+            @RequestParam(defaultValue = "5") int folds,
+            @RequestParam(defaultValue = "0.2") double testFraction,
+            @RequestParam(defaultValue = "5000") int maxDocuments) {
 
-            logger.info("ML model training completed successfully");
+        if (!mlClassifier.isEnabled()) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .body(createResponse(false, "ML Classifier is disabled. Set cacummaro.classification.ml.enabled=true", null));
+        }
 
-            return ResponseEntity.ok(createResponse(true, "Model trained successfully", metrics));
+        try {
+            TrainingJob job = trainingJobService.startEvaluation(folds, testFraction, maxDocuments);
+            return ResponseEntity.status(HttpStatus.ACCEPTED)
+                    .body(createResponse(true, "Evaluation job started", job.getStatus()));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest()
+                    .body(createResponse(false, e.getMessage(), null));
+        } catch (IllegalStateException e) {
+            Map<String, Object> current = trainingJobService.getCurrentJob()
+                    .map(TrainingJob::getStatus)
+                    .orElse(null);
+            return ResponseEntity.status(HttpStatus.CONFLICT)
+                    .body(createResponse(false, e.getMessage(), current));
+        }
+    }
 
+    /**
+     * Roll the ML model back to the version that was current before the latest training or rebuild
+     *
+     * POST /api/v1/ml/rollback
+     *
+     * @return Version now in use, or 409 if there is no previous version
+     */
+    @PostMapping("/rollback")
+    public ResponseEntity<Map<String, Object>> rollbackModel() {
+        try {
+            long version = mlClassifier.rollback();
+            return ResponseEntity.ok(createResponse(true, "Rolled back to model version " + version,
+                    mlClassifier.getModelStatus()));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT)
+                    .body(createResponse(false, e.getMessage(), null));
         } catch (Exception e) {
-            logger.error("ML model training failed: {}", e.getMessage(), e);
+            logger.error("ML model rollback failed: {}", e.getMessage(), e);
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-                    .body(createResponse(false, "Training failed: " + e.getMessage(), null));
+                    .body(createResponse(false, "Rollback failed: " + e.getMessage(), null));
+        }
+    }
+
+    /**
+     * Export the current ML model as JSON
+     *
+     * GET /api/v1/ml/model/export
+     *
+     * The model is saved in a binary format; this gives a readable copy keyed by term.
+     *
+     * @return The model as a JSON file download
+     */
+    @GetMapping("/model/export")
+    public ResponseEntity<byte[]> exportModel() {
+        try {
+            return ResponseEntity.ok()
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"ml-model.json\"")
+                    .body(mlClassifier.exportModelJson());
+        } catch (Exception e) {
+            logger.error("ML model export failed: {}", e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
         }
     }
 
@@ -111,6 +204,9 @@ public class MachineLearningController {
             status.put("categories", mlClassifier.getCategories());
             status.put("categoryCount", mlClassifier.getCategories().size());
         }
+        status.put("model", mlClassifier.getModelStatus());
+        trainingJobService.getCurrentJob().ifPresent(job -> status.put("currentJob", job.getStatus()));
+        trainingJobService.getLastJob().ifPresent(job -> status.put("lastJob", job.getStatus()));
 
         return ResponseEntity.ok(status);
     }
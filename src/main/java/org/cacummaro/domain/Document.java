@@ -47,6 +47,21 @@ public class Document extends CouchDbDocument {
     @JsonProperty("status")
     private DocumentStatus status;
 
+    @JsonProperty("termVector")
+    private Map<String, Float> termVector;
+
+    @JsonProperty("language")
+    private String language;
+
+    @JsonProperty("headings")
+    private List<String> headings;
+
+    @JsonProperty("simHash")
+    private String simHash;
+
+    @JsonProperty("duplicateOf")
+    private String duplicateOf;
+
     public Document() {}
 
     public Document(String url) {
@@ -155,4 +170,44 @@ public class Document extends CouchDbDocument {
     public void setStatus(DocumentStatus status) {
         this.status = status;
     }
+
+    public Map<String, Float> getTermVector() {
+        return termVector;
+    }
+
+    public void setTermVector(Map<String, Float> termVector) {
+        this.termVector = termVector;
+    }
+
+    public String getLanguage() {
+        return language;
+    }
+
+    public void setLanguage(String language) {
+        this.language = language;
+    }
+
+    public List<String> getHeadings() {
+        return headings;
+    }
+
+    public void setHeadings(List<String> headings) {
+        this.headings = headings;
+    }
+
+    public String getSimHash() {
+        return simHash;
+    }
+
+    public void setSimHash(String simHash) {
+        this.simHash = simHash;
+    }
+
+    public String getDuplicateOf() {
+        return duplicateOf;
+    }
+
+    public void setDuplicateOf(String duplicateOf) {
+        this.duplicateOf = duplicateOf;
+    }
 }
\ No newline at end of file
@@ -3,5 +3,6 @@ package org.cacummaro.domain;
 public enum DocumentStatus {
     PROCESSING,
     STORED,
+    DUPLICATE,
     FAILED
 }
\ No newline at end of file
@@ -0,0 +1,29 @@
+package org.cacummaro.repository;
+
+/**
+ * A single item that a bulk write could not store, e.g. a revision conflict.
+ */
+public class BulkWriteFailure {
+
+    private final String id;
+    private final String error;
+    private final String reason;
+
+    public BulkWriteFailure(String id, String error, String reason) {
+        this.id = id;
+        this.error = error;
+        this.reason = reason;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public String getReason() {
+        return reason;
+    }
+}
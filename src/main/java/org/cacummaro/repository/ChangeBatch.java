@@ -0,0 +1,65 @@
+package org.cacummaro.repository;
+
+import org.cacummaro.domain.Document;
+
+import java.util.List;
+
+/**
+ * A batch read from the CouchDB _changes feed, with the sequence to resume from.
+ */
+public class ChangeBatch {
+
+    private final List<Change> changes;
+    private final String lastSequence;
+
+    public ChangeBatch(List<Change> changes, String lastSequence) {
+        this.changes = changes;
+        this.lastSequence = lastSequence;
+    }
+
+    public List<Change> getChanges() {
+        return changes;
+    }
+
+    public String getLastSequence() {
+        return lastSequence;
+    }
+
+    public boolean isEmpty() {
+        return changes.isEmpty();
+    }
+
+    /**
+     * A single change. The document is only set for live documents of type "document";
+     * category and design document changes carry just the id.
+     */
+    public static class Change {
+        private final String id;
+        private final String sequence;
+        private final boolean deleted;
+        private final Document document;
+
+        public Change(String id, String sequence, boolean deleted, Document document) {
+            this.id = id;
+            this.sequence = sequence;
+            this.deleted = deleted;
+            this.document = document;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getSequence() {
+            return sequence;
+        }
+
+        public boolean isDeleted() {
+            return deleted;
+        }
+
+        public Document getDocument() {
+            return document;
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package org.cacummaro.repository;
+
+import java.util.List;
+
+/**
+ * One page of a keyset-paginated listing.
+ *
+ * The cursor is opaque to clients: pass {@link #getNextCursor()} back to fetch the
+ * following page. Unlike offset paging, the cost of fetching a page does not grow
+ * with its position in the listing.
+ */
+public class CursorPage<T> {
+
+    private final List<T> content;
+    private final String nextCursor;
+    private final long totalElements;
+
+    public CursorPage(List<T> content, String nextCursor, long totalElements) {
+        this.content = content;
+        this.nextCursor = nextCursor;
+        this.totalElements = totalElements;
+    }
+
+    public List<T> getContent() {
+        return content;
+    }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public boolean isHasNext() {
+        return nextCursor != null;
+    }
+
+    public long getTotalElements() {
+        return totalElements;
+    }
+}
@@ -4,6 +4,8 @@ import org.cacummaro.domain.Document;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 
+import java.io.InputStream;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -11,12 +13,20 @@ public interface DocumentRepository {
 
     Document save(Document document);
 
+    List<BulkWriteFailure> saveAll(List<Document> documents);
+
     Optional<Document> findById(String id);
 
+    List<Document> findAllById(Collection<String> ids);
+
     List<Document> findAll();
 
     Page<Document> findAll(Pageable pageable);
 
+    CursorPage<Document> findAll(String cursor, int pageSize);
+
+    long count();
+
     List<Document> findByCategory(String categoryName);
 
     Page<Document> findByCategory(String categoryName, Pageable pageable);
@@ -31,7 +41,13 @@ public interface DocumentRepository {
 
     void saveAttachment(String documentId, String attachmentName, byte[] data, String contentType);
 
+    String saveAttachment(String documentId, String revision, String attachmentName, byte[] data, String contentType);
+
     byte[] getAttachment(String documentId, String attachmentName);
 
+    InputStream getAttachmentStream(String documentId, String attachmentName);
+
     void deleteAttachment(String documentId, String attachmentName);
+
+    ChangeBatch changes(String since, int limit, long timeoutMs);
 }
\ No newline at end of file
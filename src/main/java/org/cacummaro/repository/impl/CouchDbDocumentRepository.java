@@ -3,29 +3,85 @@ package org.cacummaro.repository.impl;
 import org.apache.commons.io.IOUtils;
 import org.cacummaro.domain.Document;
 import org.cacummaro.repository.DocumentRepository;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.cacummaro.repository.BulkWriteFailure;
+import org.cacummaro.repository.ChangeBatch;
+import org.cacummaro.repository.CursorPage;
 import org.ektorp.AttachmentInputStream;
+import org.ektorp.ComplexKey;
 import org.ektorp.CouchDbConnector;
+import org.ektorp.DocumentOperationResult;
+import org.ektorp.ViewQuery;
+import org.ektorp.ViewResult;
+import org.ektorp.changes.ChangesCommand;
+import org.ektorp.changes.DocumentChange;
 import org.ektorp.support.CouchDbRepositorySupport;
+import org.ektorp.support.View;
+import org.ektorp.support.Views;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Repository;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.TreeMap;
 import java.util.stream.Collectors;
 
 @Repository
+@Views({
+        @View(name = "all",
+                map = "function(doc) { if (doc.type === 'document') { emit(null, null); } }"),
+        @View(name = CouchDbDocumentRepository.VIEW_BY_FETCHED_AT,
+                map = "function(doc) { if (doc.type === 'document') { emit(doc.fetchedAt || null, null); } }",
+                reduce = "_count"),
+        @View(name = CouchDbDocumentRepository.VIEW_BY_TITLE,
+                map = "function(doc) { if (doc.type === 'document') { emit(doc.title || null, null); } }",
+                reduce = "_count"),
+        @View(name = CouchDbDocumentRepository.VIEW_BY_CATEGORY,
+                map = "function(doc) { if (doc.type === 'document' && doc.categories) { "
+                        + "doc.categories.forEach(function(c) { emit([c.name, doc.fetchedAt || null], null); }); } }",
+                reduce = "_count")
+})
 public class CouchDbDocumentRepository extends CouchDbRepositorySupport<Document> implements DocumentRepository {
 
     private static final Logger logger = LoggerFactory.getLogger(CouchDbDocumentRepository.class);
 
-    public CouchDbDocumentRepository(CouchDbConnector db) {
+    static final String VIEW_BY_FETCHED_AT = "by_fetched_at";
+    static final String VIEW_BY_TITLE = "by_title";
+    static final String VIEW_BY_CATEGORY = "by_category";
+
+    private static final int MAX_BOOKMARKED_VIEWS = 256;
+    private static final int MAX_BOOKMARKS_PER_VIEW = 4096;
+
+    private final ObjectMapper objectMapper;
+
+    // Page start bookmarks per view and key range, least recently used dropped first
+    private final Map<String, PageBookmarks> bookmarks = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, PageBookmarks> eldest) {
+            return size() > MAX_BOOKMARKED_VIEWS;
+        }
+    };
+
+    public CouchDbDocumentRepository(CouchDbConnector db, ObjectMapper objectMapper) {
         super(Document.class, db);
+        this.objectMapper = objectMapper;
+        // Creates or merges the _design/Document views declared above
+        initStandardDesignDocument();
     }
 
     @Override
@@ -41,6 +97,19 @@ public class CouchDbDocumentRepository extends CouchDbRepositorySupport<Document
         return document;
     }
 
+    @Override
+    public List<BulkWriteFailure> saveAll(List<Document> documents) {
+        if (documents.isEmpty()) {
+            return List.of();
+        }
+
+        // One _bulk_docs request; Ektorp sets id and revision on every document that was stored
+        List<DocumentOperationResult> results = db.executeBulk(documents);
+        return results.stream()
+                .map(result -> new BulkWriteFailure(result.getId(), result.getError(), result.getReason()))
+                .collect(Collectors.toList());
+    }
+
     @Override
     public Optional<Document> findById(String id) {
         try {
@@ -50,36 +119,85 @@ public class CouchDbDocumentRepository extends CouchDbRepositorySupport<Document
         }
     }
 
+    @Override
+    public List<Document> findAllById(Collection<String> ids) {
+        if (ids.isEmpty()) {
+            return List.of();
+        }
+
+        // Single _all_docs request; missing and deleted documents are skipped
+        ViewQuery query = new ViewQuery().allDocs().keys(ids).includeDocs(true);
+        query.setIgnoreNotFound(true);
+        return db.queryView(query, Document.class).stream()
+                .filter(Objects::nonNull)
+                .filter(doc -> "document".equals(doc.getType()))
+                .collect(Collectors.toList());
+    }
+
     @Override
     public List<Document> findAll() {
-        // Get all documents and filter by type to exclude Category documents
-        List<Document> allDocs = getAll();
-        return allDocs.stream()
+        // A database whose _design/Document predates the views may still have an "all" view
+        // that emits categories too; initStandardDesignDocument does not replace it
+        return getAll().stream()
                 .filter(doc -> "document".equals(doc.getType()))
                 .collect(Collectors.toList());
     }
 
     @Override
     public Page<Document> findAll(Pageable pageable) {
-        List<Document> allDocs = findAll();
-        return createPageFromList(allDocs, pageable);
+        if (pageable.isUnpaged()) {
+            return new PageImpl<>(findAll());
+        }
+
+        ViewQuery query = sortedQuery(pageable.getSort());
+        long total = count();
+        String view = query.getViewName() + (query.isDescending() ? " descending" : " ascending");
+        return new PageImpl<>(pageContent(view, query, pageable, total), pageable, total);
+    }
+
+    @Override
+    public CursorPage<Document> findAll(String cursor, int pageSize) {
+        org.ektorp.PageRequest pageRequest;
+        try {
+            pageRequest = cursor == null || cursor.isEmpty()
+                    ? org.ektorp.PageRequest.firstPage(pageSize)
+                    : org.ektorp.PageRequest.fromLink(cursor);
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor, e);
+        }
+
+        // Ektorp pages by startkey/startkey_docid, so every page costs the same regardless of depth
+        org.ektorp.Page<Document> page = db.queryForPage(
+                createQuery(VIEW_BY_FETCHED_AT).descending(true).includeDocs(true).reduce(false),
+                pageRequest,
+                Document.class);
+
+        String nextCursor = page.isHasNext() ? page.getNextLink() : null;
+        return new CursorPage<>(page.getRows(), nextCursor, page.getTotalSize());
+    }
+
+    @Override
+    public long count() {
+        return reducedCount(createQuery(VIEW_BY_FETCHED_AT));
     }
 
     @Override
     public List<Document> findByCategory(String categoryName) {
-        // Filter documents by category in-memory since CouchDB views are not configured
-        List<Document> allDocs = findAll();
-        return allDocs.stream()
-                .filter(doc -> doc.getCategories() != null &&
-                        doc.getCategories().stream()
-                                .anyMatch(cat -> categoryName.equals(cat.getName())))
-                .collect(Collectors.toList());
+        return db.queryView(categoryQuery(categoryName), Document.class);
     }
 
     @Override
     public Page<Document> findByCategory(String categoryName, Pageable pageable) {
-        List<Document> docs = findByCategory(categoryName);
-        return createPageFromList(docs, pageable);
+        if (pageable.isUnpaged()) {
+            return new PageImpl<>(findByCategory(categoryName));
+        }
+
+        long total = reducedCount(createQuery(VIEW_BY_CATEGORY)
+                .startKey(ComplexKey.of(categoryName))
+                .endKey(ComplexKey.of(categoryName, ComplexKey.emptyObject())));
+        List<Document> pageContent = pageContent(VIEW_BY_CATEGORY + " " + categoryName,
+                categoryQuery(categoryName), pageable, total);
+        return new PageImpl<>(pageContent, pageable, total);
     }
 
     @Override
@@ -128,6 +246,17 @@ public class CouchDbDocumentRepository extends CouchDbRepositorySupport<Document
         }
     }
 
+    @Override
+    public String saveAttachment(String documentId, String revision, String attachmentName, byte[] data, String contentType) {
+        AttachmentInputStream attachment = new AttachmentInputStream(
+                attachmentName,
+                new ByteArrayInputStream(data),
+                contentType,
+                data.length
+        );
+        return db.createAttachment(documentId, revision, attachment);
+    }
+
     @Override
     public byte[] getAttachment(String documentId, String attachmentName) {
         try (AttachmentInputStream attachment = db.getAttachment(documentId, attachmentName)) {
@@ -150,6 +279,16 @@ public class CouchDbDocumentRepository extends CouchDbRepositorySupport<Document
         }
     }
 
+    @Override
+    public InputStream getAttachmentStream(String documentId, String attachmentName) {
+        try {
+            // Caller owns the stream and must close it to release the HTTP connection
+            return db.getAttachment(documentId, attachmentName);
+        } catch (org.ektorp.DocumentNotFoundException e) {
+            throw new RuntimeException("Attachment not found: " + attachmentName + " on document: " + documentId, e);
+        }
+    }
+
     @Override
     public void deleteAttachment(String documentId, String attachmentName) {
         try {
@@ -160,6 +299,163 @@ public class CouchDbDocumentRepository extends CouchDbRepositorySupport<Document
         }
     }
 
+    @Override
+    public ChangeBatch changes(String since, int limit, long timeoutMs) {
+        // Long-poll: returns as soon as there is a change, or empty after the timeout
+        ChangesCommand command = new ChangesCommand.Builder()
+                .since(since)
+                .includeDocs(true)
+                .limit(limit)
+                .param("feed", "longpoll")
+                .param("timeout", String.valueOf(timeoutMs))
+                .build();
+
+        List<DocumentChange> changes = db.changes(command);
+        List<ChangeBatch.Change> batch = new ArrayList<>(changes.size());
+        String lastSequence = since;
+        for (DocumentChange change : changes) {
+            lastSequence = change.getStringSequence();
+            batch.add(new ChangeBatch.Change(change.getId(), lastSequence, change.isDeleted(), toDocument(change)));
+        }
+        return new ChangeBatch(batch, lastSequence);
+    }
+
+    private Document toDocument(DocumentChange change) {
+        return change.isDeleted() ? null : toDocument(change.getId(), change.getDocAsNode());
+    }
+
+    private Document toDocument(String id, JsonNode node) {
+        if (node == null || !"document".equals(node.path("type").asText())) {
+            return null;
+        }
+        try {
+            return objectMapper.treeToValue(node, Document.class);
+        } catch (JsonProcessingException e) {
+            logger.warn("Skipping unreadable document {}: {}", id, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Rows of one page of a view, skipping from the closest known page start rather than from
+     * the top of the view
+     *
+     * The first row of each page served, and of the page after it, is kept as a bookmark. A
+     * request starts at the nearest bookmark at or before its page with startkey and
+     * startkey_docid, as cursor paging does, and only skips the pages in between, so paging
+     * through a listing page by page costs the same at any depth. A view's bookmarks are
+     * dropped when its row count changes, since inserts and deletes move the page boundaries.
+     *
+     * @param view Identifies the view, its order and key range
+     */
+    private List<Document> pageContent(String view, ViewQuery query, Pageable pageable, long total) {
+        int pageNumber = pageable.getPageNumber();
+        int pageSize = pageable.getPageSize();
+        PageBookmarks marks;
+        synchronized (bookmarks) {
+            marks = bookmarks.get(view);
+            if (marks == null || marks.total != total) {
+                marks = new PageBookmarks(total);
+                bookmarks.put(view, marks);
+            }
+        }
+
+        long skip = pageable.getOffset();
+        Map.Entry<Integer, PageBookmark> start = marks.floor(pageNumber);
+        if (start != null) {
+            query.startKey(start.getValue().key).startDocId(start.getValue().documentId);
+            skip = (long) (pageNumber - start.getKey()) * pageSize;
+        }
+        // One row more than the page, which is where the next page starts
+        List<ViewResult.Row> rows = db.queryView(query.skip((int) skip).limit(pageSize + 1)).getRows();
+        if (!rows.isEmpty()) {
+            marks.put(pageNumber, rows.get(0));
+        }
+        if (rows.size() > pageSize) {
+            marks.put(pageNumber + 1, rows.get(pageSize));
+            rows = rows.subList(0, pageSize);
+        }
+
+        List<Document> content = new ArrayList<>(rows.size());
+        for (ViewResult.Row row : rows) {
+            Document document = toDocument(row.getId(), row.getDocAsNode());
+            if (document != null) {
+                content.add(document);
+            }
+        }
+        return content;
+    }
+
+    private static final class PageBookmark {
+        final JsonNode key;
+        final String documentId;
+
+        PageBookmark(JsonNode key, String documentId) {
+            this.key = key;
+            this.documentId = documentId;
+        }
+    }
+
+    private static final class PageBookmarks {
+        final long total;
+        private final TreeMap<Integer, PageBookmark> pages = new TreeMap<>();
+
+        PageBookmarks(long total) {
+            this.total = total;
+        }
+
+        synchronized Map.Entry<Integer, PageBookmark> floor(int pageNumber) {
+            return pages.floorEntry(pageNumber);
+        }
+
+        synchronized void put(int pageNumber, ViewResult.Row row) {
+            if (pages.size() >= MAX_BOOKMARKS_PER_VIEW && !pages.containsKey(pageNumber)) {
+                // Keep the deepest pages, the ones that are expensive to skip to
+                pages.pollFirstEntry();
+            }
+            pages.put(pageNumber, new PageBookmark(row.getKeyAsNode(), row.getId()));
+        }
+    }
+
+    /**
+     * Builds a view query ordered by the requested sort. Title sorts use the by_title view,
+     * everything else falls back to fetchedAt, newest first unless ascending is requested.
+     */
+    private ViewQuery sortedQuery(Sort sort) {
+        Sort.Order titleOrder = sort.getOrderFor("title");
+        if (titleOrder != null) {
+            return createQuery(VIEW_BY_TITLE)
+                    .descending(titleOrder.isDescending())
+                    .includeDocs(true)
+                    .reduce(false);
+        }
+
+        Sort.Order fetchedAtOrder = sort.getOrderFor("fetchedAt");
+        boolean descending = fetchedAtOrder == null || fetchedAtOrder.isDescending();
+        return createQuery(VIEW_BY_FETCHED_AT)
+                .descending(descending)
+                .includeDocs(true)
+                .reduce(false);
+    }
+
+    private ViewQuery categoryQuery(String categoryName) {
+        // Newest first within the category: descending swaps start and end keys
+        return createQuery(VIEW_BY_CATEGORY)
+                .startKey(ComplexKey.of(categoryName, ComplexKey.emptyObject()))
+                .endKey(ComplexKey.of(categoryName))
+                .descending(true)
+                .includeDocs(true)
+                .reduce(false);
+    }
+
+    private long reducedCount(ViewQuery query) {
+        ViewResult result = db.queryView(query.reduce(true));
+        if (result.isEmpty()) {
+            return 0;
+        }
+        return result.getRows().get(0).getValueAsNode().asLong();
+    }
+
     private Page<Document> createPageFromList(List<Document> docs, Pageable pageable) {
         int start = (int) pageable.getOffset();
         int end = Math.min(start + pageable.getPageSize(), docs.size());
@@ -3,6 +3,8 @@ package org.cacummaro.service;
 import org.cacummaro.domain.Document;
 import org.cacummaro.dto.IngestRequest;
 import org.cacummaro.dto.IngestResponse;
+import org.cacummaro.repository.CursorPage;
+import org.cacummaro.service.search.SearchHit;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 
@@ -17,9 +19,13 @@ public interface DocumentService {
 
     Page<Document> getAllDocuments(Pageable pageable);
 
+    CursorPage<Document> scrollDocuments(String cursor, int pageSize);
+
+    long countDocuments();
+
     Page<Document> getDocumentsByCategory(String categoryName, Pageable pageable);
 
-    Page<Document> searchDocuments(String query, Pageable pageable);
+    Page<SearchHit> searchDocuments(String query, Pageable pageable);
 
     byte[] getDocumentPdf(String id) throws DocumentServiceException;
 
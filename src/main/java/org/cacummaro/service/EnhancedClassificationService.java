@@ -141,6 +141,10 @@ public class EnhancedClassificationService {
                 content.append(value).append(" "));
         }
 
+        if (document.getHeadings() != null) {
+            document.getHeadings().forEach(heading -> content.append(heading).append(" "));
+        }
+
         if (document.getUrl() != null) {
             content.append(document.getUrl()).append(" ");
         }
@@ -3,24 +3,38 @@ package org.cacummaro.service;
 import org.cacummaro.domain.*;
 import org.cacummaro.dto.IngestRequest;
 import org.cacummaro.dto.IngestResponse;
+import org.cacummaro.repository.CursorPage;
 import org.cacummaro.repository.DocumentRepository;
 import org.cacummaro.repository.CategoryRepository;
+import org.cacummaro.service.content.ArticleContent;
+import org.cacummaro.service.content.MainContentExtractor;
+import org.cacummaro.service.dedup.NearDuplicateIndex;
+import org.cacummaro.service.dedup.SimHash;
 import org.cacummaro.service.pdf.PdfGenerator;
+import org.cacummaro.service.pdf.ExtractedTextService;
 import org.cacummaro.service.obsidian.ObsidianNoteService;
+import org.cacummaro.service.search.SearchHit;
+import org.cacummaro.service.search.SearchIndexService;
+import org.cacummaro.service.suggest.TitleSuggestService;
 import org.jsoup.Jsoup;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
 import java.time.Instant;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
+import java.util.OptionalLong;
 import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
 
 @Service
 public class EnhancedDocumentService implements DocumentService {
@@ -34,6 +48,14 @@ public class EnhancedDocumentService implements DocumentService {
     private final UrlVerificationService urlVerificationService;
     private final EnhancedClassificationService classificationService;
     private final ObsidianNoteService obsidianNoteService;
+    private final ExtractedTextService extractedTextService;
+    private final SearchIndexService searchIndexService;
+    private final NearDuplicateIndex nearDuplicateIndex;
+    private final TitleSuggestService titleSuggestService;
+    private final MainContentExtractor mainContentExtractor;
+
+    @Value("${cacummaro.content.min-article-length:500}")
+    private int minArticleLength;
 
     // Store processing status for each document
     private final ConcurrentHashMap<String, ProcessingStatus> processingStatuses = new ConcurrentHashMap<>();
@@ -45,13 +67,35 @@ public class EnhancedDocumentService implements DocumentService {
             PdfGenerator pdfGenerator,
             UrlVerificationService urlVerificationService,
             EnhancedClassificationService classificationService,
-            ObsidianNoteService obsidianNoteService) {
+            ObsidianNoteService obsidianNoteService,
+            ExtractedTextService extractedTextService,
+            SearchIndexService searchIndexService,
+            NearDuplicateIndex nearDuplicateIndex,
+            TitleSuggestService titleSuggestService,
+            MainContentExtractor mainContentExtractor) {
         this.documentRepository = documentRepository;
         this.categoryRepository = categoryRepository;
         this.pdfGenerator = pdfGenerator;
         this.urlVerificationService = urlVerificationService;
         this.classificationService = classificationService;
         this.obsidianNoteService = obsidianNoteService;
+        this.extractedTextService = extractedTextService;
+        this.searchIndexService = searchIndexService;
+        this.nearDuplicateIndex = nearDuplicateIndex;
+        this.titleSuggestService = titleSuggestService;
+        this.mainContentExtractor = mainContentExtractor;
+    }
+
+    /**
+     * Term vector for similar-document lookups; a failure only costs the document its neighbours
+     */
+    private Map<String, Float> termVector(Document document, String text) {
+        try {
+            return searchIndexService.termVector(document, text);
+        } catch (Exception e) {
+            logger.warn("Failed to compute term vector for {}: {}", document.getId(), e.getMessage());
+            return document.getTermVector();
+        }
     }
 
     @Override
@@ -92,9 +136,10 @@ public class EnhancedDocumentService implements DocumentService {
 
             // Step 3: Store in CouchDB with UUID
             status.setCurrentStep(ProcessingStep.STORAGE);
+            ArticleContent article;
             try {
-                // Extract basic metadata from the page
-                extractMetadata(document, request.getUrl());
+                // Extract basic metadata and the main article text from the page
+                article = extractMetadata(document, request.getUrl());
 
                 // Create sanitized filename from page title
                 String sanitizedTitle = sanitizeFilename(document.getTitle());
@@ -106,7 +151,8 @@ public class EnhancedDocumentService implements DocumentService {
                 document = documentRepository.save(document);
 
                 // Store PDF as attachment in CouchDB
-                documentRepository.saveAttachment(document.getId(), pdfFilename, pdfData, "application/pdf");
+                document.setRevision(documentRepository.saveAttachment(
+                        document.getId(), document.getRevision(), pdfFilename, pdfData, "application/pdf"));
 
             } catch (Exception e) {
                 status.setFailed(true);
@@ -119,18 +165,45 @@ public class EnhancedDocumentService implements DocumentService {
 
             // Step 4: Analyze PDF content
             status.setCurrentStep(ProcessingStep.CONTENT_ANALYSIS);
+            String extractedText = null;
             try {
-                // This would normally extract text content from PDF for analysis
-                // For now, we'll use the metadata we have
-                analyzeContent(document);
+                extractedText = analyzeContent(document, pdfData, article);
             } catch (Exception e) {
                 // Content analysis failure shouldn't stop the process
                 status.addCompletedStep(new ProcessingStatus.ProcessingStepResult(
                     ProcessingStep.CONTENT_ANALYSIS, false, "Content analysis failed: " + e.getMessage()));
             }
 
+            // Fingerprint the text so syndicated copies with different page templates are caught;
+            // text too short to fingerprint reliably is neither looked up nor indexed
+            String simHash = null;
+            Document original = null;
+            OptionalLong simHashValue = extractedText != null && nearDuplicateIndex.isEnabled()
+                    ? SimHash.of(extractedText) : OptionalLong.empty();
+            if (simHashValue.isPresent()) {
+                long fingerprint = simHashValue.getAsLong();
+                simHash = SimHash.toHex(fingerprint);
+                original = nearDuplicateIndex.findNearDuplicate(fingerprint, document.getId())
+                        .flatMap(documentRepository::findById)
+                        .orElse(null);
+
+                if (original != null && nearDuplicateIndex.getAction() == NearDuplicateIndex.Action.COLLAPSE) {
+                    logger.info("Collapsing {} into near-duplicate {}", document.getId(), original.getId());
+                    deleteDocument(document.getId());
+                    status.addCompletedStep(new ProcessingStatus.ProcessingStepResult(
+                        ProcessingStep.CONTENT_ANALYSIS, true, "Near-duplicate of " + original.getId() + ", not stored"));
+                    status.setCurrentStep(ProcessingStep.COMPLETED);
+                    status.setCompleted(true);
+                    return new IngestResponse(original.getId(), DocumentStatus.DUPLICATE,
+                            "/api/v1/documents/" + original.getId() + "/pdf");
+                }
+                nearDuplicateIndex.add(document.getId(), fingerprint);
+            }
+
             status.addCompletedStep(new ProcessingStatus.ProcessingStepResult(
-                ProcessingStep.CONTENT_ANALYSIS, true, "Content analyzed successfully"));
+                ProcessingStep.CONTENT_ANALYSIS, true, original != null
+                    ? "Content analyzed, near-duplicate of " + original.getId()
+                    : "Content analyzed successfully"));
 
             // Step 5: Categorize document
             status.setCurrentStep(ProcessingStep.CATEGORIZATION);
@@ -141,7 +214,17 @@ public class EnhancedDocumentService implements DocumentService {
                 document = documentRepository.findById(document.getId()).orElseThrow();
                 logger.debug("Document refreshed, revision: {}", document.getRevision());
 
-                List<CategoryAssignment> categories = classificationService.classifyDocument(document);
+                document.setSimHash(simHash);
+                document.setDuplicateOf(original != null ? original.getId() : null);
+                document.setTermVector(termVector(document, extractedText));
+
+                List<CategoryAssignment> categories;
+                if (original != null && original.getCategories() != null) {
+                    // A copy gets the original's categories without running the classifiers again
+                    categories = original.getCategories();
+                } else {
+                    categories = classificationService.classifyDocument(document);
+                }
                 logger.debug("Classification result: {} categories found", categories.size());
 
                 document.setCategories(categories);
@@ -163,8 +246,17 @@ public class EnhancedDocumentService implements DocumentService {
             status.addCompletedStep(new ProcessingStatus.ProcessingStepResult(
                 ProcessingStep.CATEGORIZATION, true, "Document categorized successfully"));
 
-            // Create Obsidian note if requested
-            if (request.getOptions().isCreateObsidianNote()) {
+            // Make the document searchable by its metadata and PDF text
+            try {
+                searchIndexService.indexDocument(document, extractedText);
+            } catch (Exception e) {
+                // Search indexing failure shouldn't stop the process
+                logger.error("Search indexing failed: {}", e.getMessage(), e);
+            }
+            titleSuggestService.addDocument(document);
+
+            // Create Obsidian note if requested; a near-duplicate already has one through its original
+            if (request.getOptions().isCreateObsidianNote() && original == null) {
                 try {
                     obsidianNoteService.createNote(document, request.getOptions().getNoteMetaTag());
                 } catch (Exception e) {
@@ -202,7 +294,7 @@ public class EnhancedDocumentService implements DocumentService {
         processingStatuses.remove(documentId);
     }
 
-    private void extractMetadata(Document document, String url) {
+    private ArticleContent extractMetadata(Document document, String url) {
         try {
             // Fetch and parse the HTML page
             org.jsoup.nodes.Document htmlDoc = Jsoup.connect(url)
@@ -254,6 +346,12 @@ public class EnhancedDocumentService implements DocumentService {
 
             document.setFetchedAt(Instant.now());
 
+            // Main article text for the classifiers, without the page chrome the PDF carries
+            ArticleContent article = mainContentExtractor.extract(htmlDoc);
+            document.setHeadings(article.getHeadings());
+            document.setLanguage(article.getLanguage());
+            return article;
+
         } catch (Exception e) {
             // Fallback to basic metadata if parsing fails
             document.setTitle("Web Page Snapshot");
@@ -261,6 +359,7 @@ public class EnhancedDocumentService implements DocumentService {
             document.setCanonicalUrl(url);
             document.setFetchedAt(Instant.now());
             logger.warn("Failed to extract metadata from {}: {}", url, e.getMessage());
+            return null;
         }
     }
 
@@ -289,10 +388,16 @@ public class EnhancedDocumentService implements DocumentService {
         return sanitized.isEmpty() ? "document" : sanitized;
     }
 
-    private void analyzeContent(Document document) {
-        // This would normally extract and analyze text content from the PDF
-        // For now, this is a placeholder
+    private String analyzeContent(Document document, byte[] pdfData, ArticleContent article) throws IOException {
         logger.debug("Analyzing content for document: {}", document.getId());
+        // Extract once; classification and indexing read the cached attachment from here on
+        if (article != null && article.getText().length() >= minArticleLength) {
+            logger.debug("Using {} characters of article text from the page HTML", article.getText().length());
+            extractedTextService.storeText(document, article.getText());
+            return article.getText();
+        }
+        // Too little article text (e.g. a PDF link or a script-rendered page): parse the snapshot
+        return extractedTextService.extractAndStore(document, pdfData);
     }
 
     private void ensureCategoryExists(String categoryName) {
@@ -346,14 +451,36 @@ public class EnhancedDocumentService implements DocumentService {
         return documentRepository.findAll(pageable);
     }
 
+    @Override
+    public CursorPage<Document> scrollDocuments(String cursor, int pageSize) {
+        return documentRepository.findAll(cursor, pageSize);
+    }
+
+    @Override
+    public long countDocuments() {
+        return documentRepository.count();
+    }
+
     @Override
     public Page<Document> getDocumentsByCategory(String categoryName, Pageable pageable) {
         return documentRepository.findByCategory(categoryName, pageable);
     }
 
     @Override
-    public Page<Document> searchDocuments(String query, Pageable pageable) {
-        return documentRepository.search(query, pageable);
+    public Page<SearchHit> searchDocuments(String query, Pageable pageable) {
+        if (searchIndexService.isAvailable()) {
+            try {
+                return searchIndexService.search(query, pageable);
+            } catch (IOException e) {
+                logger.error("Search index query failed, falling back to metadata scan: {}", e.getMessage(), e);
+            }
+        }
+
+        Page<Document> documents = documentRepository.search(query, pageable);
+        List<SearchHit> hits = documents.getContent().stream()
+                .map(document -> new SearchHit(document, 0.0f, List.of()))
+                .collect(Collectors.toList());
+        return new PageImpl<>(hits, pageable, documents.getTotalElements());
     }
 
     @Override
@@ -383,6 +510,8 @@ public class EnhancedDocumentService implements DocumentService {
         try {
             documentRepository.delete(id);
             processingStatuses.remove(id);
+            searchIndexService.deleteDocument(id);
+            titleSuggestService.removeDocument(id);
         } catch (Exception e) {
             throw new DocumentServiceException("Failed to delete document: " + e.getMessage(), e);
         }
@@ -399,6 +528,7 @@ public class EnhancedDocumentService implements DocumentService {
         try {
             List<CategoryAssignment> categories = classificationService.classifyDocument(document);
             document.setCategories(categories);
+            document.setTermVector(termVector(document, extractedTextService.getText(document)));
             return documentRepository.save(document);
         } catch (Exception e) {
             throw new DocumentServiceException("Reclassification failed: " + e.getMessage(), e);
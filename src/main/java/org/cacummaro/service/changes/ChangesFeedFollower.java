@@ -0,0 +1,287 @@
+package org.cacummaro.service.changes;
+
+import org.cacummaro.repository.ChangeBatch;
+import org.cacummaro.repository.DocumentRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Follows the CouchDB _changes feed and forwards document changes to every
+ * {@link DocumentChangeListener}.
+ *
+ * The last processed sequence is checkpointed to a local file after each batch, so a restarted
+ * node resumes where it stopped instead of rescanning the corpus. Each node keeps its own
+ * checkpoint, which keeps node-local indexes and caches coherent across a cluster.
+ *
+ * The checkpoint only moves past a batch every listener accepted. If a listener fails, the
+ * others still get the batch, and the whole batch is delivered again after a backoff, so a
+ * transient failure delays a change rather than losing it. A change that keeps failing for a
+ * listener is given up after {@code max-retries} redeliveries: it is appended to the
+ * dead-letter file and the feed moves on, so one poisoned document cannot stall every index.
+ *
+ * Without a checkpoint the feed starts at {@code initial-sequence}. The default "0" replays the
+ * whole corpus through every listener, which is how a fresh node's search index gets filled;
+ * "now" only follows new changes and leaves existing documents to an explicit rebuild.
+ */
+@Service
+public class ChangesFeedFollower {
+
+    private static final Logger logger = LoggerFactory.getLogger(ChangesFeedFollower.class);
+    private static final long INITIAL_BACKOFF_MS = 1000;
+    private static final long MAX_BACKOFF_MS = 60000;
+
+    @Value("${cacummaro.changes.enabled:true}")
+    private boolean enabled;
+
+    @Value("${cacummaro.changes.checkpoint-path:./changes-checkpoint}")
+    private String checkpointPath;
+
+    @Value("${cacummaro.changes.initial-sequence:0}")
+    private String initialSequence;
+
+    @Value("${cacummaro.changes.batch-size:200}")
+    private int batchSize;
+
+    @Value("${cacummaro.changes.poll-timeout-ms:5000}")
+    private long pollTimeoutMs;
+
+    @Value("${cacummaro.changes.max-retries:5}")
+    private int maxRetries;
+
+    @Value("${cacummaro.changes.dead-letter-path:./changes-dead-letter.tsv}")
+    private String deadLetterPath;
+
+    private final DocumentRepository documentRepository;
+    private final List<DocumentChangeListener> listeners;
+    private final AtomicLong processedChanges = new AtomicLong();
+    private final AtomicLong deadLetters = new AtomicLong();
+    // Failed attempts per listener and change since the checkpoint last moved
+    private final Map<String, Integer> attempts = new HashMap<>();
+
+    private volatile boolean running;
+    private volatile String lastSequence;
+    private volatile String lastError;
+    private volatile Instant lastErrorAt;
+    private Thread followerThread;
+
+    @Autowired
+    public ChangesFeedFollower(DocumentRepository documentRepository, List<DocumentChangeListener> listeners) {
+        this.documentRepository = documentRepository;
+        this.listeners = listeners;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!enabled) {
+            logger.info("Changes feed follower is disabled. Set cacummaro.changes.enabled=true to enable");
+            return;
+        }
+
+        lastSequence = loadCheckpoint();
+        if ("0".equals(lastSequence)) {
+            logger.info("No changes checkpoint at {}; replaying the whole corpus from sequence 0", checkpointPath);
+        }
+        running = true;
+        followerThread = new Thread(this::follow, "changes-feed-follower");
+        followerThread.setDaemon(true);
+        followerThread.start();
+
+        logger.info("Changes feed follower started from sequence {} with listeners {}",
+                abbreviate(lastSequence),
+                listeners.stream().map(DocumentChangeListener::getListenerName).collect(Collectors.toList()));
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        if (followerThread != null) {
+            followerThread.interrupt();
+            try {
+                followerThread.join(pollTimeoutMs + INITIAL_BACKOFF_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            logger.info("Changes feed follower stopped at sequence {}", abbreviate(lastSequence));
+        }
+    }
+
+    private void follow() {
+        long backoffMs = INITIAL_BACKOFF_MS;
+        while (running) {
+            try {
+                ChangeBatch batch = documentRepository.changes(lastSequence, batchSize, pollTimeoutMs);
+                if (!batch.isEmpty()) {
+                    int failures = 0;
+                    for (ChangeBatch.Change change : batch.getChanges()) {
+                        failures += dispatch(change);
+                    }
+                    failures += completeBatch(batch.getLastSequence());
+                    if (failures > 0) {
+                        // Listeners are idempotent, so those that succeeded can see the batch again
+                        throw new IOException(failures + " listener calls failed; batch after sequence "
+                                + abbreviate(lastSequence) + " will be delivered again");
+                    }
+                    lastSequence = batch.getLastSequence();
+                    saveCheckpoint(lastSequence);
+                    attempts.clear();
+                    processedChanges.addAndGet(batch.getChanges().size());
+                    logger.debug("Processed {} changes up to sequence {}",
+                            batch.getChanges().size(), abbreviate(lastSequence));
+                }
+                backoffMs = INITIAL_BACKOFF_MS;
+            } catch (Exception e) {
+                if (!running) {
+                    break;
+                }
+                lastError = e.getMessage();
+                lastErrorAt = Instant.now();
+                logger.warn("Changes feed batch failed, retrying in {} ms: {}", backoffMs, e.getMessage());
+                try {
+                    Thread.sleep(backoffMs);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                backoffMs = Math.min(backoffMs * 2, MAX_BACKOFF_MS);
+            }
+        }
+    }
+
+    /**
+     * @return Number of listeners that failed on the change
+     */
+    private int dispatch(ChangeBatch.Change change) {
+        if (change.getId().startsWith("_design/")) {
+            return 0;
+        }
+
+        int failures = 0;
+        for (DocumentChangeListener listener : listeners) {
+            try {
+                if (change.isDeleted()) {
+                    listener.onDocumentDeleted(change.getId());
+                } else if (change.getDocument() != null) {
+                    listener.onDocumentChanged(change.getDocument());
+                }
+            } catch (Exception e) {
+                // One failing listener must not hold back the others; the batch is retried
+                logger.error("Listener {} failed on change to {}: {}",
+                        listener.getListenerName(), change.getId(), e.getMessage(), e);
+                String what = (change.isDeleted() ? "delete " : "change ") + change.getId();
+                if (!giveUp(listener, what, change.getSequence(), e)) {
+                    failures++;
+                }
+            }
+        }
+        return failures;
+    }
+
+    /**
+     * @return Number of listeners that failed to complete the batch
+     */
+    private int completeBatch(String batchSequence) {
+        int failures = 0;
+        for (DocumentChangeListener listener : listeners) {
+            try {
+                listener.afterBatch();
+            } catch (Exception e) {
+                logger.error("Listener {} failed to complete batch: {}", listener.getListenerName(), e.getMessage(), e);
+                if (!giveUp(listener, "batch", batchSequence, e)) {
+                    failures++;
+                }
+            }
+        }
+        return failures;
+    }
+
+    /**
+     * Count a failed attempt and dead-letter it once the retries are used up
+     *
+     * @return true if the failure should no longer hold back the checkpoint
+     */
+    private boolean giveUp(DocumentChangeListener listener, String what, String sequence, Exception e) {
+        int failed = attempts.merge(listener.getListenerName() + " " + what + " " + sequence, 1, Integer::sum);
+        if (failed <= maxRetries) {
+            return false;
+        }
+
+        deadLetters.incrementAndGet();
+        logger.error("Listener {} gave up on {} at sequence {} after {} attempts",
+                listener.getListenerName(), what, abbreviate(sequence), failed);
+        String line = String.join("\t", Instant.now().toString(), listener.getListenerName(), what, sequence,
+                String.valueOf(e.getMessage()).replaceAll("\\s+", " ")) + "\n";
+        try {
+            Files.writeString(Paths.get(deadLetterPath), line, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException writeFailure) {
+            logger.error("Failed to write dead letter to {}: {}", deadLetterPath, writeFailure.getMessage());
+        }
+        return true;
+    }
+
+    private String loadCheckpoint() {
+        Path path = Paths.get(checkpointPath);
+        try {
+            if (Files.exists(path)) {
+                String sequence = Files.readString(path, StandardCharsets.UTF_8).trim();
+                if (!sequence.isEmpty()) {
+                    return sequence;
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("Failed to read changes checkpoint {}: {}", checkpointPath, e.getMessage());
+        }
+        return initialSequence;
+    }
+
+    private void saveCheckpoint(String sequence) throws IOException {
+        // Write-then-rename so a crash never leaves a truncated checkpoint behind
+        Path path = Paths.get(checkpointPath).toAbsolutePath();
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        Files.writeString(temp, sequence, StandardCharsets.UTF_8);
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public Map<String, Object> getStatus() {
+        Map<String, Object> status = new HashMap<>();
+        status.put("enabled", enabled);
+        status.put("running", running && followerThread != null && followerThread.isAlive());
+        status.put("lastSequence", lastSequence);
+        status.put("processedChanges", processedChanges.get());
+        status.put("deadLetters", deadLetters.get());
+        status.put("listeners", listeners.stream().map(DocumentChangeListener::getListenerName).collect(Collectors.toList()));
+        if (lastError != null) {
+            status.put("lastError", lastError);
+            status.put("lastErrorAt", lastErrorAt.toString());
+        }
+        return status;
+    }
+
+    private static String abbreviate(String sequence) {
+        // CouchDB 2+ sequences are long opaque strings; the numeric prefix is enough for logs
+        if (sequence == null || sequence.length() <= 24) {
+            return sequence;
+        }
+        return sequence.substring(0, 24) + "...";
+    }
+}
@@ -0,0 +1,26 @@
+package org.cacummaro.service.changes;
+
+import org.cacummaro.domain.Document;
+
+/**
+ * Receives document changes from the CouchDB _changes feed.
+ *
+ * Any Spring bean implementing this interface is registered with {@link ChangesFeedFollower}.
+ * Delivery is at-least-once: after a restart, changes since the last checkpoint are replayed,
+ * so implementations must be idempotent.
+ */
+public interface DocumentChangeListener {
+
+    void onDocumentChanged(Document document) throws Exception;
+
+    void onDocumentDeleted(String documentId) throws Exception;
+
+    /**
+     * Called once a batch of changes has been delivered and before its checkpoint is saved,
+     * so listeners can commit buffered work in one go.
+     */
+    default void afterBatch() throws Exception {
+    }
+
+    String getListenerName();
+}
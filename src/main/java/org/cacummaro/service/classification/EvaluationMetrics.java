@@ -0,0 +1,147 @@
+package org.cacummaro.service.classification;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Quality and speed of held-out predictions: a confusion matrix of actual against predicted
+ * category, and the time each prediction took
+ *
+ * Precision, recall and F1 are derived per category from the matrix, along with their
+ * unweighted (macro) averages. A category that was never predicted has precision 0. The
+ * matrix counts predictions as classify makes them, after the confidence threshold; the
+ * top-category accuracy ignores the threshold, so models can be compared apart from it.
+ * Predictions are recorded from the training workers, so the methods are synchronized.
+ */
+final class EvaluationMetrics {
+
+    /** Predicted category of a document no category reached the confidence threshold for */
+    static final String NONE = "(none)";
+
+    // Actual category -> predicted category -> documents
+    private final Map<String, Map<String, Integer>> confusion = new TreeMap<>();
+    private long[] latencyNanos = new long[256];
+    private int predictions;
+    private int topCategoryCorrect;
+    private long trainingMillis;
+
+    /**
+     * @param predicted Category classify would assign, or {@link #NONE}
+     * @param ranked Highest-scoring category whatever its confidence, or {@link #NONE}
+     */
+    synchronized void record(String actual, String predicted, String ranked, long nanos) {
+        if (ranked.equals(actual)) {
+            topCategoryCorrect++;
+        }
+        confusion.computeIfAbsent(actual, category -> new TreeMap<>()).merge(predicted, 1, Integer::sum);
+        if (predictions == latencyNanos.length) {
+            latencyNanos = Arrays.copyOf(latencyNanos, predictions * 2);
+        }
+        latencyNanos[predictions++] = nanos;
+    }
+
+    synchronized void addTrainingTime(long millis) {
+        trainingMillis += millis;
+    }
+
+    synchronized Map<String, Object> toReport() {
+        TreeSet<String> categories = new TreeSet<>(confusion.keySet());
+        Map<String, Integer> predictedTotals = new TreeMap<>();
+        int correct = 0;
+        int abstained = 0;
+        for (Map.Entry<String, Map<String, Integer>> row : confusion.entrySet()) {
+            for (Map.Entry<String, Integer> cell : row.getValue().entrySet()) {
+                predictedTotals.merge(cell.getKey(), cell.getValue(), Integer::sum);
+                if (cell.getKey().equals(row.getKey())) {
+                    correct += cell.getValue();
+                }
+                if (cell.getKey().equals(NONE)) {
+                    abstained += cell.getValue();
+                } else {
+                    categories.add(cell.getKey());
+                }
+            }
+        }
+
+        Map<String, Object> perCategory = new LinkedHashMap<>();
+        double precisionSum = 0;
+        double recallSum = 0;
+        double f1Sum = 0;
+        for (String category : categories) {
+            Map<String, Integer> row = confusion.getOrDefault(category, Map.of());
+            int truePositives = row.getOrDefault(category, 0);
+            int support = row.values().stream().mapToInt(Integer::intValue).sum();
+            int predicted = predictedTotals.getOrDefault(category, 0);
+            double precision = predicted > 0 ? (double) truePositives / predicted : 0;
+            double recall = support > 0 ? (double) truePositives / support : 0;
+            double f1 = precision + recall > 0 ? 2 * precision * recall / (precision + recall) : 0;
+            precisionSum += precision;
+            recallSum += recall;
+            f1Sum += f1;
+
+            Map<String, Object> metrics = new LinkedHashMap<>();
+            metrics.put("precision", round(precision));
+            metrics.put("recall", round(recall));
+            metrics.put("f1", round(f1));
+            metrics.put("support", support);
+            perCategory.put(category, metrics);
+        }
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("testDocuments", predictions);
+        report.put("accuracy", round(predictions > 0 ? (double) correct / predictions : 0));
+        report.put("topCategoryAccuracy", round(predictions > 0 ? (double) topCategoryCorrect / predictions : 0));
+        report.put("abstained", abstained);
+        int n = Math.max(1, categories.size());
+        report.put("macroPrecision", round(precisionSum / n));
+        report.put("macroRecall", round(recallSum / n));
+        report.put("macroF1", round(f1Sum / n));
+        report.put("categories", perCategory);
+        report.put("confusionMatrix", confusion);
+        report.put("trainingMs", trainingMillis);
+        report.put("throughput", throughput());
+        return report;
+    }
+
+    /**
+     * Single-threaded predictions per second and latency percentiles, in milliseconds
+     */
+    private Map<String, Object> throughput() {
+        long[] sorted = Arrays.copyOf(latencyNanos, predictions);
+        Arrays.sort(sorted);
+        long total = 0;
+        for (long nanos : sorted) {
+            total += nanos;
+        }
+
+        Map<String, Object> latency = new LinkedHashMap<>();
+        latency.put("mean", round(predictions > 0 ? total / 1e6 / predictions : 0));
+        latency.put("p50", percentile(sorted, 0.50));
+        latency.put("p90", percentile(sorted, 0.90));
+        latency.put("p99", percentile(sorted, 0.99));
+        latency.put("max", percentile(sorted, 1.0));
+
+        Map<String, Object> throughput = new LinkedHashMap<>();
+        throughput.put("documentsPerSecond", round(total > 0 ? predictions * 1e9 / total : 0));
+        throughput.put("latencyMs", latency);
+        return throughput;
+    }
+
+    /**
+     * Nearest-rank percentile in milliseconds
+     */
+    private static double percentile(long[] sorted, double fraction) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int rank = (int) Math.ceil(fraction * sorted.length);
+        return round(sorted[Math.max(0, rank - 1)] / 1e6);
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 10000) / 10000.0;
+    }
+}
@@ -0,0 +1,83 @@
+package org.cacummaro.service.classification;
+
+/**
+ * Hashing-trick feature space: tokens and adjacent token pairs map straight to one of
+ * {@code dimension} buckets, with no vocabulary to build or keep
+ *
+ * Each feature also gets a sign from an independent bit of its hash, so features that collide
+ * in a bucket cancel out on average instead of adding up.
+ */
+final class FeatureHasher {
+
+    @FunctionalInterface
+    interface FeatureSink {
+        /**
+         * @param index Bucket of the feature, in {@code [0, dimension)}
+         * @param sign +1 or -1
+         */
+        void accept(int index, int sign);
+    }
+
+    final int dimension;
+    final boolean bigrams;
+
+    FeatureHasher(int dimension, boolean bigrams) {
+        if (dimension <= 0) {
+            throw new IllegalArgumentException("Hashing dimension must be positive: " + dimension);
+        }
+        this.dimension = dimension;
+        this.bigrams = bigrams;
+    }
+
+    void features(CharSequence text, Tokenizer tokenizer, FeatureSink sink) {
+        tokenizer.tokenize(text, new Tokenizer.TokenSink() {
+            private int previous;
+            private boolean hasPrevious;
+
+            @Override
+            public void accept(char[] token, int length, int hash) {
+                int unigram = mix(hash);
+                emit(unigram, sink);
+                if (bigrams && hasPrevious) {
+                    emit(mix(previous * 0x9E3779B9 + hash), sink);
+                }
+                previous = unigram;
+                hasPrevious = true;
+            }
+        });
+    }
+
+    private void emit(int hash, FeatureSink sink) {
+        // Bit 0 gives the sign, the other 31 bits the bucket
+        sink.accept((hash >>> 1) % dimension, (hash & 1) == 0 ? 1 : -1);
+    }
+
+    /**
+     * MurmurHash3 finalizer, spreading String hash codes over all 32 bits
+     */
+    private static int mix(int hash) {
+        hash ^= hash >>> 16;
+        hash *= 0x85EBCA6B;
+        hash ^= hash >>> 13;
+        hash *= 0xC2B2AE35;
+        hash ^= hash >>> 16;
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof FeatureHasher
+                && ((FeatureHasher) other).dimension == dimension
+                && ((FeatureHasher) other).bigrams == bigrams;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * dimension + (bigrams ? 1 : 0);
+    }
+
+    @Override
+    public String toString() {
+        return "hashing(dimension=" + dimension + (bigrams ? ", bigrams" : "") + ")";
+    }
+}
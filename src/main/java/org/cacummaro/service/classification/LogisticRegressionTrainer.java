@@ -0,0 +1,221 @@
+package org.cacummaro.service.classification;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.BooleanSupplier;
+
+/**
+ * One-vs-rest logistic regression trained with mini-batch SGD on sparse feature vectors
+ *
+ * Each category is an independent binary problem over the same examples, so categories are
+ * trained in parallel with no shared mutable state; memory is one dense weight array per
+ * category in flight. Gradient updates touch only the features present in a batch. L2 decay
+ * applies to every weight after every batch, but lazily: a running log of the decay factors is
+ * kept, and a weight catches up on the factors it missed when it is next read and once at the
+ * end, which gives the same result as decaying all weights every batch. Example order is shuffled per epoch from a fixed seed, so results do not depend on the
+ * number of workers.
+ */
+final class LogisticRegressionTrainer {
+
+    private static final long SHUFFLE_SEED = 42;
+
+    static final class Example {
+        final SparseVector features;
+        final List<String> labels;
+
+        Example(SparseVector features, List<String> labels) {
+            this.features = features;
+            this.labels = labels;
+        }
+    }
+
+    static final class Result {
+        final Map<String, SparseVector> weights = new HashMap<>();
+        final Map<String, Double> bias = new HashMap<>();
+    }
+
+    private static final class Fit {
+        final SparseVector weights;
+        final double bias;
+
+        Fit(SparseVector weights, double bias) {
+            this.weights = weights;
+            this.bias = bias;
+        }
+    }
+
+    private final int epochs;
+    private final double learningRate;
+    private final int batchSize;
+    private final double l2;
+
+    LogisticRegressionTrainer(int epochs, double learningRate, int batchSize, double l2) {
+        if (l2 < 0 || learningRate * l2 >= 1) {
+            throw new IllegalArgumentException("L2 must be non-negative and below 1 / learning rate, got " + l2);
+        }
+        this.epochs = Math.max(1, epochs);
+        this.learningRate = learningRate;
+        this.batchSize = Math.max(1, batchSize);
+        this.l2 = l2;
+    }
+
+    /**
+     * @param examples Training documents with all their categories
+     * @param categories Categories to learn
+     * @param features Number of feature ids
+     * @param parallelism Categories trained at once
+     * @param cancelled Checked once per category and epoch
+     * @throws CancellationException if {@code cancelled} turned true
+     */
+    Result train(List<Example> examples, List<String> categories, int features, int parallelism,
+                 BooleanSupplier cancelled) {
+        int[][] orders = new int[epochs][];
+        Random random = new Random(SHUFFLE_SEED);
+        for (int epoch = 0; epoch < epochs; epoch++) {
+            orders[epoch] = shuffled(examples.size(), random);
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, parallelism));
+        try {
+            List<Future<Fit>> tasks = new ArrayList<>();
+            for (String category : categories) {
+                tasks.add(pool.submit(() -> trainCategory(examples, category, features, orders, cancelled)));
+            }
+            Result result = new Result();
+            for (int c = 0; c < categories.size(); c++) {
+                Fit fit = tasks.get(c).get();
+                result.weights.put(categories.get(c), fit.weights);
+                result.bias.put(categories.get(c), fit.bias);
+            }
+            return result;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Logistic regression training interrupted");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private Fit trainCategory(List<Example> examples, String category, int features, int[][] orders,
+                            BooleanSupplier cancelled) {
+        boolean[] positive = new boolean[examples.size()];
+        int positives = 0;
+        for (int i = 0; i < positive.length; i++) {
+            positive[i] = examples.get(i).labels.contains(category);
+            if (positive[i]) {
+                positives++;
+            }
+        }
+
+        double[] weights = new double[features];
+        double[] gradient = new double[features];
+        int[] stamp = new int[features];
+        int[] touched = new int[features];
+        // Sum of log decay factors so far, and its value when each weight was last decayed
+        double decayLog = 0;
+        double[] decayedAt = new double[features];
+        // Starting from the base rate saves the first epochs from learning it
+        double rate = (positives + 0.5) / (examples.size() + 1.0);
+        double bias = Math.log(rate / (1 - rate));
+
+        int batch = 0;
+        for (int epoch = 0; epoch < orders.length; epoch++) {
+            if (cancelled.getAsBoolean()) {
+                throw new CancellationException("Logistic regression training cancelled");
+            }
+            double step = learningRate / (1 + epoch);
+            int[] order = orders[epoch];
+            for (int start = 0; start < order.length; start += batchSize) {
+                int end = Math.min(order.length, start + batchSize);
+                batch++;
+                int touchedCount = 0;
+                double biasGradient = 0;
+                for (int k = start; k < end; k++) {
+                    SparseVector x = examples.get(order[k]).features;
+                    double z = bias;
+                    for (int i = 0; i < x.size(); i++) {
+                        int id = x.ids[i];
+                        if (decayedAt[id] != decayLog) {
+                            weights[id] *= Math.exp(decayLog - decayedAt[id]);
+                            decayedAt[id] = decayLog;
+                        }
+                        z += weights[id] * x.weights[i];
+                    }
+                    double error = sigmoid(z) - (positive[order[k]] ? 1 : 0);
+                    biasGradient += error;
+                    for (int i = 0; i < x.size(); i++) {
+                        int id = x.ids[i];
+                        if (stamp[id] != batch) {
+                            stamp[id] = batch;
+                            gradient[id] = 0;
+                            touched[touchedCount++] = id;
+                        }
+                        gradient[id] += error * x.weights[i];
+                    }
+                }
+                int size = end - start;
+                bias -= step * biasGradient / size;
+                double decay = 1 - step * l2;
+                decayLog += Math.log(decay);
+                for (int t = 0; t < touchedCount; t++) {
+                    int id = touched[t];
+                    weights[id] = weights[id] * decay - step * gradient[id] / size;
+                    decayedAt[id] = decayLog;
+                }
+            }
+        }
+        for (int id = 0; id < features; id++) {
+            if (decayedAt[id] != decayLog) {
+                weights[id] *= Math.exp(decayLog - decayedAt[id]);
+            }
+        }
+        return new Fit(sparse(weights), bias);
+    }
+
+    private static SparseVector sparse(double[] weights) {
+        int nonZero = 0;
+        for (double weight : weights) {
+            if ((float) weight != 0) {
+                nonZero++;
+            }
+        }
+        int[] ids = new int[nonZero];
+        float[] values = new float[nonZero];
+        for (int id = 0, n = 0; id < weights.length; id++) {
+            if ((float) weights[id] != 0) {
+                ids[n] = id;
+                values[n++] = (float) weights[id];
+            }
+        }
+        return new SparseVector(ids, values);
+    }
+
+    private static int[] shuffled(int size, Random random) {
+        int[] order = new int[size];
+        Arrays.setAll(order, i -> i);
+        for (int i = size - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int swap = order[i];
+            order[i] = order[j];
+            order[j] = swap;
+        }
+        return order;
+    }
+
+    private static double sigmoid(double z) {
+        return 1 / (1 + Math.exp(-z));
+    }
+}
@@ -3,10 +3,12 @@ package org.cacummaro.service.classification;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.cacummaro.domain.CategoryAssignment;
 import org.cacummaro.domain.Document;
+import org.cacummaro.repository.CursorPage;
 import org.cacummaro.repository.DocumentRepository;
+import org.cacummaro.service.changes.DocumentChangeListener;
 import org.cacummaro.service.mcp.McpClientService;
 import org.cacummaro.service.mcp.McpClassificationResult;
-import org.cacummaro.service.pdf.PdfTextExtractor;
+import org.cacummaro.service.pdf.ExtractedTextService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -14,23 +16,54 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /**
  * Machine Learning Classifier using TF-IDF and Cosine Similarity
  *
  * This classifier extracts text from PDFs and uses TF-IDF (Term Frequency-Inverse Document Frequency)
  * vectorization with cosine similarity to classify documents into categories.
+ *
+ * The {@code engine} setting swaps the cosine similarity for multinomial Naive Bayes or
+ * one-vs-rest logistic regression over the same features. Those two learn from all of a
+ * document's categories rather than just the primary one. Logistic regression is fitted over
+ * the training documents after counting, so its model changes only on full training.
+ *
+ * Besides full training, the term statistics behind the model are kept up to date from the
+ * _changes feed as documents are categorized, reclassified or deleted, and the model is rebuilt from
+ * them every {@code incremental.rebuild-interval-ms} when something changed.
+ *
+ * Every trained or rebuilt model gets the next version number, recorded on the category
+ * assignments it produces. The version it replaced is kept in memory for {@link #rollback()}.
  */
 @Service
-public class MachineLearningClassifier implements Classifier {
+public class MachineLearningClassifier implements Classifier, DocumentChangeListener {
 
     private static final Logger logger = LoggerFactory.getLogger(MachineLearningClassifier.class);
-    private static final String CLASSIFIER_NAME = "ml-tfidf";
     private static final String CLASSIFIER_VERSION = "v1.0";
+    private static final long EVALUATION_SEED = 42;
 
     @Value("${cacummaro.classification.ml.enabled:false}")
     private boolean enabled;
@@ -38,7 +71,7 @@ public class MachineLearningClassifier implements Classifier {
     @Value("${cacummaro.classification.ml.confidence-threshold:0.6}")
     private double confidenceThreshold;
 
-    @Value("${cacummaro.classification.ml.model-path:./ml-model.json}")
+    @Value("${cacummaro.classification.ml.model-path:./ml-model.bin}")
     private String modelPath;
 
     @Value("${cacummaro.classification.ml.min-document-frequency:2}")
@@ -47,32 +80,90 @@ public class MachineLearningClassifier implements Classifier {
     @Value("${cacummaro.classification.ml.max-features:1000}")
     private int maxFeatures;
 
-    private final PdfTextExtractor textExtractor;
+    // Terms kept per category centroid, strongest first; 0 keeps them all
+    @Value("${cacummaro.classification.ml.centroid-max-terms:0}")
+    private int centroidMaxTerms;
+
+    // "centroid", "naive-bayes" or "logistic-regression"
+    @Value("${cacummaro.classification.ml.engine:centroid}")
+    private String engine;
+
+    @Value("${cacummaro.classification.ml.naive-bayes.smoothing:1.0}")
+    private double naiveBayesSmoothing;
+
+    @Value("${cacummaro.classification.ml.logistic-regression.epochs:10}")
+    private int logisticRegressionEpochs;
+
+    // Large because a unit-length TF-IDF vector spreads over many small feature values
+    @Value("${cacummaro.classification.ml.logistic-regression.learning-rate:10.0}")
+    private double logisticRegressionLearningRate;
+
+    @Value("${cacummaro.classification.ml.logistic-regression.batch-size:32}")
+    private int logisticRegressionBatchSize;
+
+    @Value("${cacummaro.classification.ml.logistic-regression.l2:0.000001}")
+    private double logisticRegressionL2;
+
+    // "vocabulary" keeps the max-features most frequent terms; "hashing" hashes terms into buckets
+    @Value("${cacummaro.classification.ml.vectorizer:vocabulary}")
+    private String vectorizer;
+
+    @Value("${cacummaro.classification.ml.hashing.dimension:262144}")
+    private int hashingDimension;
+
+    @Value("${cacummaro.classification.ml.hashing.bigrams:true}")
+    private boolean hashingBigrams;
+
+    @Value("${cacummaro.classification.ml.training-parallelism:0}")
+    private int trainingParallelism;
+
+    @Value("${cacummaro.classification.ml.training-prefetch:16}")
+    private int trainingPrefetch;
+
+    @Value("${cacummaro.classification.ml.training-page-size:200}")
+    private int trainingPageSize;
+
+    @Value("${cacummaro.classification.ml.statistics-path:./ml-statistics.json}")
+    private String statisticsPath;
+
+    @Value("${cacummaro.classification.ml.incremental.enabled:true}")
+    private boolean incrementalEnabled;
+
+    @Value("${cacummaro.classification.ml.incremental.rebuild-interval-ms:10000}")
+    private long rebuildIntervalMs;
+
+    private final ExtractedTextService extractedTextService;
     private final DocumentRepository documentRepository;
     private final ObjectMapper objectMapper;
     private final McpClientService mcpClientService;
 
-    // TF-IDF model components
-    private Map<String, Integer> vocabulary; // word -> index
-    private Map<String, Double> inverseDocumentFrequency; // word -> IDF score
-    private Map<String, Map<String, Double>> categoryVectors; // category -> (word -> TF-IDF)
-    private Set<String> stopWords;
-    private boolean modelTrained = false;
+    // TF-IDF model components: vocabulary, IDF scores and category vectors
+    private volatile TfIdfModel model = TfIdfModel.EMPTY;
+    private final Tokenizer tokenizer;
+
+    // Held for the whole of a training run so two runs never overwrite each other's model
+    private final ReentrantLock trainingLock = new ReentrantLock();
+
+    // Term statistics the model is built from; null until a model has been trained. The lock
+    // also orders model publication, so a rollback and a rebuild never interleave
+    private final Object statisticsLock = new Object();
+    private TermCounts statistics;
+    private boolean statisticsChanged;
+    private TfIdfModel previousModel;
+    private long lastVersion;
+    private ScheduledExecutorService rebuildScheduler;
 
     @Autowired
     public MachineLearningClassifier(
-            PdfTextExtractor textExtractor,
+            ExtractedTextService extractedTextService,
             DocumentRepository documentRepository,
             ObjectMapper objectMapper,
             McpClientService mcpClientService) {
-        this.textExtractor = textExtractor;
+        this.extractedTextService = extractedTextService;
         this.documentRepository = documentRepository;
         this.objectMapper = objectMapper;
         this.mcpClientService = mcpClientService;
-        this.vocabulary = new HashMap<>();
-        this.inverseDocumentFrequency = new HashMap<>();
-        this.categoryVectors = new HashMap<>();
-        this.stopWords = initializeStopWords();
+        this.tokenizer = new Tokenizer(initializeStopWords());
     }
 
     @PostConstruct
@@ -81,13 +172,36 @@ public class MachineLearningClassifier implements Classifier {
             logger.info("ML Classifier is disabled. Set cacummaro.classification.ml.enabled=true to enable");
             return;
         }
+        // An engine that cannot be used fails startup rather than the first training run
+        logger.info("ML Classifier engine: {}", configuredEngine().id);
 
         // Try to load existing model
         try {
             loadModel();
-            logger.info("ML Classifier model loaded successfully from {}", modelPath);
         } catch (IOException e) {
-            logger.warn("No existing ML model found at {}. Model will need to be trained.", modelPath);
+            logger.warn("No usable ML model at {} ({}). Model will need to be trained.", modelPath, e.getMessage());
+        }
+
+        if (incrementalEnabled) {
+            if (configuredEngine() == TfIdfModel.Engine.LOGISTIC_REGRESSION) {
+                logger.warn("Incremental updates keep the term statistics current but do not refit a "
+                        + "logistic-regression model; retrain it to pick up new and changed documents");
+            }
+            loadStatistics();
+            rebuildScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "ml-model-rebuild");
+                thread.setDaemon(true);
+                return thread;
+            });
+            rebuildScheduler.scheduleWithFixedDelay(
+                    this::rebuildIfChanged, rebuildIntervalMs, rebuildIntervalMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void cleanup() {
+        if (rebuildScheduler != null) {
+            rebuildScheduler.shutdownNow();
         }
     }
 
@@ -98,15 +212,14 @@ public class MachineLearningClassifier implements Classifier {
             return Collections.emptyList();
         }
 
-        if (!modelTrained) {
+        if (!isModelTrained()) {
             logger.warn("ML model not trained yet, returning empty classification");
             return Collections.emptyList();
         }
 
         try {
-            // Extract text from PDF
-            byte[] pdfData = documentRepository.getAttachment(document.getId(), document.getPdfAttachmentName());
-            String pdfText = textExtractor.extractText(pdfData);
+            // Text cached at ingest; the caller saves this document next, so don't write here
+            String pdfText = extractedTextService.getText(document);
 
             // Combine metadata and PDF text
             String fullText = buildFullText(document, pdfText);
@@ -143,16 +256,11 @@ public class MachineLearningClassifier implements Classifier {
             }
 
             // Run TF-IDF classification (always as backup or enhancement)
-            Map<String, Double> documentVector = computeTfIdfVector(fullText);
+            TfIdfModel current = model;
+            SparseVector documentVector = current.vectorize(fullText, tokenizer);
 
-            // Calculate similarity with each category
-            Map<String, Double> categoryScores = new HashMap<>();
-            for (Map.Entry<String, Map<String, Double>> entry : categoryVectors.entrySet()) {
-                String category = entry.getKey();
-                Map<String, Double> categoryVector = entry.getValue();
-                double similarity = cosineSimilarity(documentVector, categoryVector);
-                categoryScores.put(category, similarity);
-            }
+            // Cosine similarity, or the engine's confidence, per category
+            Map<String, Double> categoryScores = current.score(documentVector);
 
             // Filter by confidence threshold and create assignments
             List<CategoryAssignment> tfidfAssignments = categoryScores.entrySet().stream()
@@ -160,7 +268,7 @@ public class MachineLearningClassifier implements Classifier {
                     .map(e -> new CategoryAssignment(
                             e.getKey(),
                             e.getValue(),
-                            getClassifierName() + "-" + getClassifierVersion()
+                            "ml-" + current.engine.id + "-" + getClassifierVersion() + "/model-" + current.version
                     ))
                     .sorted((a, b) -> Double.compare(b.getConfidence(), a.getConfidence()))
                     .collect(Collectors.toList());
@@ -196,181 +304,803 @@ public class MachineLearningClassifier implements Classifier {
     }
 
     /**
-     * Train the ML model on existing documents
+     * Train the ML model on the categorized documents in the repository
      *
-     * @param trainingDocuments Documents with known categories for training
+     * Documents are paged through rather than loaded at once. Text is fetched and tokenized on
+     * a fork-join pool with at most {@code training-prefetch} documents in flight, and only
+     * term counts are kept, so memory stays flat however many documents are used.
+     *
+     * Progress is reported on the job, and the job's cancel flag is checked between documents.
+     * A cancelled run leaves the current model and statistics as they were. The logistic
+     * regression engine pages through the counted documents a second time to fit its weights.
+     *
+     * @param job Job carrying the document limit and receiving progress
+     * @return Number of documents the model was trained on; 0 if none were found
      * @throws IOException if training fails
+     * @throws CancellationException if the job was cancelled
+     * @throws IllegalStateException if another training run is in progress
      */
-    public void train(List<Document> trainingDocuments) throws IOException {
-        logger.info("Starting ML model training with {} documents", trainingDocuments.size());
+    public int trainFromRepository(TrainingJob job) throws IOException {
+        acquireTrainingLock();
+        try {
+            return countAndPublish(job);
+        } finally {
+            trainingLock.unlock();
+        }
+    }
 
-        // Group documents by category
-        Map<String, List<String>> categoryTexts = new HashMap<>();
+    private int countAndPublish(TrainingJob job) throws IOException {
+        int maxDocuments = job.getMaxDocuments();
+        logger.info("Starting streaming ML model training job {} (max documents: {}, workers: {}, prefetch: {})",
+                   job.getId(), maxDocuments > 0 ? maxDocuments : "all", trainingWorkers(), trainingPrefetch());
+        long start = System.currentTimeMillis();
+
+        // One accumulator per worker thread, merged once every document is counted
+        Map<Thread, TermCounts> partials = new ConcurrentHashMap<>();
+        int submitted = forEachDocument(job, maxDocuments, true, doc -> trainingLabels(doc) != null,
+                doc -> countDocument(doc, partials.computeIfAbsent(Thread.currentThread(), t -> newCounts(incrementalEnabled))));
+        checkCancelled(job);
+
+        job.startBuilding();
+        TermCounts counts = newCounts(incrementalEnabled);
+        partials.values().forEach(counts::merge);
+        logger.info("Counted {} of {} submitted documents ({} distinct terms) in {} ms",
+                   counts.documents(), submitted, counts.size(), System.currentTimeMillis() - start);
+        if (counts.documents() == 0) {
+            return 0;
+        }
 
-        for (Document doc : trainingDocuments) {
-            if (doc.getCategories() == null || doc.getCategories().isEmpty()) {
-                continue;
-            }
+        publish(counts, space -> {
+            job.startFitting();
+            Set<String> counted = counts.documentIds();
+            Map<String, LogisticRegressionTrainer.Example> examples = new ConcurrentHashMap<>();
+            forEachDocument(job, counted.size(), false, doc -> counted.contains(doc.getId()),
+                    doc -> addExample(doc, counts.labelsOf(doc.getId()), space, examples));
+            checkCancelled(job);
+            return examples;
+        }, job::isCancelRequested);
+        return counts.documents();
+    }
 
-            try {
-                // Get the primary category
-                String category = doc.getCategories().get(0).getName();
+    /**
+     * Page through the repository and run a task on a fork-join pool for each document the
+     * filter accepts, with at most {@code training-prefetch} documents in flight
+     *
+     * @param limit Documents to submit at most; 0 for no limit
+     * @param reportProgress Whether to count scanned and processed documents on the job
+     * @return Number of documents submitted, all of them processed by the time this returns
+     */
+    private int forEachDocument(TrainingJob job, int limit, boolean reportProgress,
+                                Predicate<Document> filter, Consumer<Document> task) throws IOException {
+        return forEachDocument(job, limit, reportProgress, filter, task,
+                cursor -> documentRepository.findAll(cursor, trainingPageSize));
+    }
 
-                // Extract text from PDF
-                byte[] pdfData = documentRepository.getAttachment(doc.getId(), doc.getPdfAttachmentName());
-                String pdfText = textExtractor.extractText(pdfData);
-                String fullText = buildFullText(doc, pdfText);
+    /**
+     * Run the task on the given documents, fetched by id a page at a time rather than found by
+     * paging through the whole corpus
+     */
+    private void forEachDocument(TrainingJob job, Collection<String> ids, Consumer<Document> task) throws IOException {
+        List<String> ordered = new ArrayList<>(new TreeSet<>(ids));
+        forEachDocument(job, 0, false, doc -> true, task, cursor -> {
+            int from = cursor != null ? Integer.parseInt(cursor) : 0;
+            int to = Math.min(ordered.size(), from + trainingPageSize);
+            return new CursorPage<>(documentRepository.findAllById(ordered.subList(from, to)),
+                    to < ordered.size() ? String.valueOf(to) : null, ordered.size());
+        });
+    }
 
-                categoryTexts.computeIfAbsent(category, k -> new ArrayList<>()).add(fullText);
+    private int forEachDocument(TrainingJob job, int limit, boolean reportProgress, Predicate<Document> filter,
+                                Consumer<Document> task, Function<String, CursorPage<Document>> pages) throws IOException {
+        int prefetch = trainingPrefetch();
+        ForkJoinPool pool = new ForkJoinPool(trainingWorkers());
+        Semaphore inFlight = new Semaphore(prefetch);
+        int submitted = 0;
+        try {
+            String cursor = null;
+            boolean started = false;
+            do {
+                checkCancelled(job);
+                CursorPage<Document> page = pages.apply(cursor);
+                if (!started && reportProgress) {
+                    job.startCounting(page.getTotalElements());
+                }
+                started = true;
+                for (Document doc : page.getContent()) {
+                    if (limit > 0 && submitted >= limit) {
+                        break;
+                    }
+                    checkCancelled(job);
+                    if (reportProgress) {
+                        job.documentScanned();
+                    }
+                    if (!filter.test(doc)) {
+                        continue;
+                    }
+                    inFlight.acquire();
+                    submitted++;
+                    if (reportProgress) {
+                        job.documentSubmitted();
+                    }
+                    pool.execute(() -> {
+                        try {
+                            // Documents still queued when the job is cancelled are skipped
+                            if (!job.isCancelRequested()) {
+                                task.accept(doc);
+                            }
+                        } finally {
+                            if (reportProgress) {
+                                job.documentProcessed();
+                            }
+                            inFlight.release();
+                        }
+                    });
+                }
+                cursor = page.getNextCursor();
+            } while (cursor != null && (limit <= 0 || submitted < limit));
+
+            // Every permit back means every submitted document has been processed
+            inFlight.acquire(prefetch);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Training interrupted", e);
+        } finally {
+            pool.shutdownNow();
+        }
+        return submitted;
+    }
 
-            } catch (Exception e) {
-                logger.warn("Failed to process document {} for training: {}", doc.getId(), e.getMessage());
+    private int trainingWorkers() {
+        return trainingParallelism > 0 ? trainingParallelism : Runtime.getRuntime().availableProcessors();
+    }
+
+    private int trainingPrefetch() {
+        return Math.max(trainingWorkers(), trainingPrefetch);
+    }
+
+    /**
+     * Estimate how well, and how fast, a model trained with the current settings classifies
+     * documents it has not seen
+     *
+     * Categorized documents are split within each primary category, so every split keeps the
+     * category mix. With 2 or more folds each document is held out once (stratified k-fold
+     * cross-validation); with 1, {@code testFraction} of each category is held out. A model is
+     * trained on the rest of each split as full training would, without replacing the current
+     * one, and its top category for each held-out document is compared with the document's
+     * primary category. Latency covers vectorizing and scoring text that is already fetched.
+     *
+     * The corpus is paged through once for ids and labels, and only those are kept between
+     * folds; each fold fetches its documents by id for their text, so memory stays flat as with
+     * training. Text is only read, never cached, so an evaluation writes nothing to CouchDB. Runs as a job of the
+     * {@link TrainingJobService}, which keeps it from overlapping a training job; the current
+     * model can still be retrained or rebuilt meanwhile.
+     *
+     * @param job Job carrying the document limit and receiving fold progress
+     * @param folds Number of folds; 1 for a single holdout split
+     * @param testFraction Share of each category held out when {@code folds} is 1
+     * @return Per-category precision, recall and F1, the confusion matrix and throughput
+     * @throws IllegalArgumentException if the split parameters are out of range
+     * @throws IOException if there are too few documents to split
+     * @throws CancellationException if the job was cancelled
+     */
+    public Map<String, Object> evaluate(TrainingJob job, int folds, double testFraction) throws IOException {
+        checkEvaluationParameters(folds, testFraction);
+        int maxDocuments = job.getMaxDocuments();
+        long start = System.currentTimeMillis();
+        logger.info("Starting ML model evaluation job {} ({} folds, max documents: {})",
+                   job.getId(), folds, maxDocuments > 0 ? maxDocuments : "all");
+        job.startEvaluating(folds);
+
+        Map<String, List<String>> labels = new ConcurrentHashMap<>();
+        forEachDocument(job, maxDocuments, false, doc -> trainingLabels(doc) != null,
+                doc -> labels.put(doc.getId(), trainingLabels(doc)));
+        checkCancelled(job);
+        if (labels.size() < 2) {
+            throw new IOException("Not enough categorized documents to evaluate: " + labels.size());
+        }
+
+        // Split each category on its own, in a seeded order so runs are repeatable
+        Map<String, List<String>> byCategory = new TreeMap<>();
+        for (String id : new TreeSet<>(labels.keySet())) {
+            byCategory.computeIfAbsent(labels.get(id).get(0), category -> new ArrayList<>()).add(id);
+        }
+        Random random = new Random(EVALUATION_SEED);
+        Map<String, Integer> testFold = new HashMap<>();
+        for (List<String> ids : byCategory.values()) {
+            Collections.shuffle(ids, random);
+            if (folds > 1) {
+                for (int i = 0; i < ids.size(); i++) {
+                    testFold.put(ids.get(i), i % folds);
+                }
+            } else if (ids.size() > 1) {
+                // At least one document on each side of the split
+                long held = Math.max(1, Math.min(ids.size() - 1, Math.round(ids.size() * testFraction)));
+                for (int i = 0; i < held; i++) {
+                    testFold.put(ids.get(i), 0);
+                }
             }
         }
 
-        if (categoryTexts.isEmpty()) {
-            throw new IOException("No valid training documents found");
+        EvaluationMetrics metrics = new EvaluationMetrics();
+        for (int fold = 0; fold < folds; fold++) {
+            Set<String> trainIds = new HashSet<>();
+            Set<String> testIds = new HashSet<>();
+            for (String id : labels.keySet()) {
+                (Objects.equals(testFold.get(id), fold) ? testIds : trainIds).add(id);
+            }
+            if (!trainIds.isEmpty() && !testIds.isEmpty()) {
+                evaluateFold(job, trainIds, testIds, labels, metrics);
+            }
+            job.foldCompleted();
+        }
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("method", folds > 1 ? "stratified " + folds + "-fold cross-validation" : "stratified holdout");
+        report.put("folds", folds);
+        if (folds == 1) {
+            report.put("testFraction", testFraction);
         }
+        report.put("engine", configuredEngine().id);
+        FeatureHasher hasher = configuredHasher();
+        report.put("vectorizer", hasher != null ? hasher.toString() : "vocabulary(max features=" + maxFeatures + ")");
+        report.put("confidenceThreshold", confidenceThreshold);
+        report.put("documents", labels.size());
+        report.putAll(metrics.toReport());
+        report.put("durationMs", System.currentTimeMillis() - start);
+        logger.info("ML model evaluation job {} finished in {} ms: accuracy {}, macro F1 {} over {} held-out documents",
+                   job.getId(), report.get("durationMs"), report.get("accuracy"), report.get("macroF1"),
+                   report.get("testDocuments"));
+        return report;
+    }
 
-        logger.info("Training on {} categories: {}", categoryTexts.size(), categoryTexts.keySet());
+    /**
+     * @throws IllegalArgumentException if the split parameters are out of range
+     */
+    void checkEvaluationParameters(int folds, double testFraction) {
+        if (folds < 1) {
+            throw new IllegalArgumentException("folds must be at least 1");
+        }
+        if (folds == 1 && !(testFraction > 0 && testFraction < 1)) {
+            throw new IllegalArgumentException("testFraction must be between 0 and 1");
+        }
+    }
 
-        // Build vocabulary from all documents
-        buildVocabulary(categoryTexts);
+    /**
+     * Train a throwaway model on one split's training documents and record its predictions
+     * for the held-out ones
+     *
+     * @param labels Labels of every document in the evaluation, as split
+     */
+    private void evaluateFold(TrainingJob job, Set<String> trainIds, Set<String> testIds,
+                              Map<String, List<String>> labels, EvaluationMetrics metrics) throws IOException {
+        long trainingStart = System.currentTimeMillis();
+        Map<Thread, TermCounts> partials = new ConcurrentHashMap<>();
+        forEachDocument(job, trainIds,
+                doc -> countDocument(doc, partials.computeIfAbsent(Thread.currentThread(), t -> newCounts(false))));
+        checkCancelled(job);
+        TermCounts counts = newCounts(false);
+        partials.values().forEach(counts::merge);
+        if (counts.documents() == 0) {
+            return;
+        }
+        TfIdfModel candidate = trainModel(counts, space -> {
+            Set<String> counted = counts.documentIds();
+            Map<String, LogisticRegressionTrainer.Example> examples = new ConcurrentHashMap<>();
+            forEachDocument(job, counted, doc -> addExample(doc, counts.labelsOf(doc.getId()), space, examples));
+            checkCancelled(job);
+            return examples;
+        }, job::isCancelRequested);
+        metrics.addTrainingTime(System.currentTimeMillis() - trainingStart);
+
+        forEachDocument(job, testIds, doc -> {
+            String fullText;
+            try {
+                fullText = buildFullText(doc, extractedTextService.getText(doc));
+            } catch (Exception e) {
+                logger.warn("Failed to process document {} for evaluation: {}", doc.getId(), e.getMessage());
+                return;
+            }
+            long predictionStart = System.nanoTime();
+            Map.Entry<String, Double> top = topCategory(candidate.score(candidate.vectorize(fullText, tokenizer)));
+            long nanos = System.nanoTime() - predictionStart;
+            String ranked = top != null ? top.getKey() : EvaluationMetrics.NONE;
+            String predicted = top != null && top.getValue() >= confidenceThreshold ? ranked : EvaluationMetrics.NONE;
+            metrics.record(labels.get(doc.getId()).get(0), predicted, ranked, nanos);
+        });
+        checkCancelled(job);
+    }
 
-        // Calculate IDF scores
-        calculateIDF(categoryTexts);
+    /**
+     * @return Highest-scoring category and its confidence, or null if no category scored
+     */
+    private static Map.Entry<String, Double> topCategory(Map<String, Double> scores) {
+        Map.Entry<String, Double> top = null;
+        for (Map.Entry<String, Double> entry : scores.entrySet()) {
+            if (top == null || entry.getValue() > top.getValue()) {
+                top = entry;
+            }
+        }
+        return top;
+    }
 
-        // Create TF-IDF vectors for each category
-        for (Map.Entry<String, List<String>> entry : categoryTexts.entrySet()) {
-            String category = entry.getKey();
-            List<String> texts = entry.getValue();
+    private void acquireTrainingLock() {
+        if (!trainingLock.tryLock()) {
+            throw new IllegalStateException("ML model training is already in progress");
+        }
+    }
 
-            // Combine all texts for the category
-            String categoryText = String.join(" ", texts);
-            Map<String, Double> categoryVector = computeTfIdfVector(categoryText);
+    private static void checkCancelled(TrainingJob job) {
+        if (job.isCancelRequested()) {
+            throw new CancellationException("Training job " + job.getId() + " was cancelled");
+        }
+    }
 
-            categoryVectors.put(category, categoryVector);
-            logger.debug("Created TF-IDF vector for category: {} ({} features)", category, categoryVector.size());
+    @Override
+    public void onDocumentChanged(Document document) throws IOException {
+        if (!enabled || !incrementalEnabled) {
+            return;
+        }
+        List<String> labels = trainingLabels(document);
+        synchronized (statisticsLock) {
+            if (statistics == null || Objects.equals(statistics.labelsOf(document.getId()), labels)) {
+                // No model to update yet, or nothing changed that the model learns from
+                return;
+            }
         }
 
-        modelTrained = true;
-        logger.info("ML model training completed successfully");
+        // Reads the cached text; fetched outside the lock so ingestion never waits on it. Removal
+        // subtracts what the document was counted with, so only new labels need the text
+        String fullText = labels != null ? buildFullText(document, extractedTextService.getText(document)) : null;
+        List<String> previous;
+        synchronized (statisticsLock) {
+            if (statistics == null) {
+                return;
+            }
+            previous = statistics.labelsOf(document.getId());
+            if (Objects.equals(previous, labels)) {
+                return;
+            }
+            if (previous != null) {
+                statistics.removeDocument(document.getId());
+            }
+            if (labels != null) {
+                statistics.addDocument(document.getId(), labels, fullText, tokenizer);
+            }
+            statisticsChanged = true;
+        }
+        logger.debug("Updated model statistics for document {} ({} -> {})",
+                    document.getId(), previous, labels);
+    }
 
-        // Save the model
-        saveModel();
+    @Override
+    public void onDocumentDeleted(String documentId) {
+        if (!enabled || !incrementalEnabled) {
+            return;
+        }
+        synchronized (statisticsLock) {
+            if (statistics != null && statistics.removeDocument(documentId)) {
+                statisticsChanged = true;
+                logger.debug("Removed deleted document {} from model statistics", documentId);
+            }
+        }
     }
 
-    private void buildVocabulary(Map<String, List<String>> categoryTexts) {
-        Map<String, Integer> wordFrequency = new HashMap<>();
+    @Override
+    public String getListenerName() {
+        return "ml-classifier";
+    }
 
-        // Count document frequency for each word
-        for (List<String> texts : categoryTexts.values()) {
-            for (String text : texts) {
-                Set<String> uniqueWords = new HashSet<>(tokenize(text));
-                for (String word : uniqueWords) {
-                    wordFrequency.merge(word, 1, Integer::sum);
+    private void rebuildIfChanged() {
+        try {
+            TfIdfModel rebuilt;
+            TermCounts.Data snapshot;
+            synchronized (statisticsLock) {
+                if (!statisticsChanged || statistics == null || statistics.documents() == 0) {
+                    return;
+                }
+                if (configuredEngine() == TfIdfModel.Engine.LOGISTIC_REGRESSION) {
+                    // Its weights come from the documents, not the counts; the next training refits them
+                    return;
                 }
+                statisticsChanged = false;
+                rebuilt = publishModel(buildModel(statistics));
+                snapshot = statistics.toData();
             }
+            logger.info("Rebuilt ML model version {} from updated statistics: {} categories, {}",
+                       rebuilt.version, rebuilt.categoryVectors.size(), rebuilt.describeFeatures());
+            persist(rebuilt, snapshot);
+        } catch (Exception e) {
+            logger.error("Failed to rebuild ML model from statistics: {}", e.getMessage(), e);
         }
+    }
 
-        // Filter words by document frequency and limit vocabulary size
-        vocabulary = wordFrequency.entrySet().stream()
-                .filter(e -> e.getValue() >= minDocumentFrequency)
-                .sorted((a, b) -> Integer.compare(b.getValue(), a.getValue()))
-                .limit(maxFeatures)
-                .collect(Collectors.toMap(
-                        Map.Entry::getKey,
-                        e -> vocabulary.size(),
-                        (a, b) -> a,
-                        LinkedHashMap::new
-                ));
+    /**
+     * Categories a document is learned under, if it has a PDF and is not a near-duplicate of a
+     * document that is already counted: its primary category for the centroid engine, all of
+     * its categories for the others
+     *
+     * @return The categories, or null if the document is not learned from
+     */
+    private List<String> trainingLabels(Document doc) {
+        if (doc.getCategories() == null || doc.getCategories().isEmpty()
+                || doc.getPdfAttachmentName() == null || doc.getDuplicateOf() != null) {
+            return null;
+        }
+        if (configuredEngine() == TfIdfModel.Engine.CENTROID) {
+            return List.of(doc.getCategories().get(0).getName());
+        }
+        return doc.getCategories().stream()
+                .map(CategoryAssignment::getName)
+                .distinct()
+                .collect(Collectors.toList());
+    }
 
-        logger.info("Built vocabulary with {} terms (min freq: {}, max features: {})",
-                   vocabulary.size(), minDocumentFrequency, maxFeatures);
+    private void countDocument(Document doc, TermCounts counts) {
+        try {
+            List<String> labels = trainingLabels(doc);
+
+            // Read-only: a training pass must not advance every document's revision
+            String pdfText = extractedTextService.getText(doc);
+            counts.addDocument(doc.getId(), labels, buildFullText(doc, pdfText), tokenizer);
+
+        } catch (Exception e) {
+            logger.warn("Failed to process document {} for training: {}", doc.getId(), e.getMessage());
+        }
     }
 
-    private void calculateIDF(Map<String, List<String>> categoryTexts) {
-        int totalDocuments = categoryTexts.values().stream().mapToInt(List::size).sum();
+    /**
+     * Vectorize a counted document over the feature space for logistic regression
+     */
+    private void addExample(Document doc, List<String> labels, TfIdfModel space,
+                            Map<String, LogisticRegressionTrainer.Example> examples) {
+        try {
+            String fullText = buildFullText(doc, extractedTextService.getText(doc));
+            examples.put(doc.getId(), new LogisticRegressionTrainer.Example(space.vectorize(fullText, tokenizer), labels));
+        } catch (Exception e) {
+            logger.warn("Failed to process document {} for training: {}", doc.getId(), e.getMessage());
+        }
+    }
 
-        Map<String, Integer> documentFrequency = new HashMap<>();
-        for (List<String> texts : categoryTexts.values()) {
-            for (String text : texts) {
-                Set<String> uniqueWords = new HashSet<>(tokenize(text));
-                for (String word : uniqueWords) {
-                    if (vocabulary.containsKey(word)) {
-                        documentFrequency.merge(word, 1, Integer::sum);
-                    }
-                }
-            }
+    /**
+     * Build the model from freshly trained counts, make it current and keep the counts for
+     * incremental updates
+     *
+     * @param examples Training documents by id, vectorized over the feature space; only
+     *                 collected for the logistic regression engine
+     * @param cancelled Checked while fitting logistic regression
+     */
+    private void publish(TermCounts counts, ExampleSource examples, BooleanSupplier cancelled) throws IOException {
+        if (counts.documents() == 0) {
+            throw new IOException("No valid training documents found");
         }
 
-        // Calculate IDF = log(total_documents / document_frequency)
-        inverseDocumentFrequency = documentFrequency.entrySet().stream()
-                .collect(Collectors.toMap(
-                        Map.Entry::getKey,
-                        e -> Math.log((double) totalDocuments / e.getValue())
-                ));
+        logger.info("Training on {} categories: {}", counts.categories().size(), counts.categories());
+        // The counts are not shared yet, so the model is built without holding the lock
+        TfIdfModel built = trainModel(counts, examples, cancelled);
+        TfIdfModel trained;
+        TermCounts.Data snapshot;
+        synchronized (statisticsLock) {
+            statistics = counts;
+            statisticsChanged = false;
+            trained = publishModel(built);
+            snapshot = incrementalEnabled ? counts.toData() : null;
+        }
+        logger.info("ML model training completed successfully (model version {})", trained.version);
 
-        logger.debug("Calculated IDF scores for {} terms", inverseDocumentFrequency.size());
+        persist(trained, snapshot);
     }
 
-    private Map<String, Double> computeTfIdfVector(String text) {
-        List<String> tokens = tokenize(text);
-        Map<String, Integer> termFrequency = new HashMap<>();
+    /**
+     * Save a published model and the statistics it was built from, unless a later publication
+     * or a rollback has replaced it in the meantime
+     */
+    private synchronized void persist(TfIdfModel published, TermCounts.Data statisticsData) throws IOException {
+        if (model != published) {
+            logger.debug("ML model version {} was replaced before it was saved", published.version);
+            return;
+        }
+        saveModel(published);
+        if (statisticsData != null) {
+            saveStatistics(statisticsData);
+        }
+    }
 
-        // Count term frequencies
-        for (String token : tokens) {
-            if (vocabulary.containsKey(token)) {
-                termFrequency.merge(token, 1, Integer::sum);
+    /**
+     * Model for the configured engine from counts no one else holds, fitted but unversioned
+     */
+    private TfIdfModel trainModel(TermCounts counts, ExampleSource examples, BooleanSupplier cancelled)
+            throws IOException {
+        TfIdfModel built = buildModel(counts);
+        if (configuredEngine() == TfIdfModel.Engine.LOGISTIC_REGRESSION) {
+            built = fitLogisticRegression(built, examples.collect(built), cancelled);
+        }
+        return built;
+    }
+
+    @FunctionalInterface
+    private interface ExampleSource {
+        Map<String, LogisticRegressionTrainer.Example> collect(TfIdfModel space) throws IOException;
+    }
+
+    /**
+     * Make a model current under the next version, keeping the one it replaces for rollback;
+     * call with statisticsLock held
+     *
+     * @return The published model
+     */
+    private TfIdfModel publishModel(TfIdfModel next) {
+        TfIdfModel versioned = next.withVersion(++lastVersion, Instant.now());
+        if (model != TfIdfModel.EMPTY) {
+            previousModel = model;
+        }
+        model = versioned;
+        return versioned;
+    }
+
+    /**
+     * Go back to the model version that was current before the latest training or rebuild
+     *
+     * The term statistics belong to the newer model, so they are dropped; incremental updates
+     * resume after the next training. Rolling back twice returns to the newer version.
+     *
+     * @return Version now in use
+     * @throws IllegalStateException if there is no previous version
+     * @throws IOException if the restored model cannot be saved
+     */
+    public long rollback() throws IOException {
+        TfIdfModel restored;
+        TfIdfModel replaced;
+        synchronized (statisticsLock) {
+            if (previousModel == null) {
+                throw new IllegalStateException("No previous ML model version to roll back to");
             }
+            restored = previousModel;
+            replaced = model;
+            previousModel = replaced;
+            model = restored;
+            statistics = null;
+            statisticsChanged = false;
         }
+        logger.info("Rolled back ML model from version {} to version {}", replaced.version, restored.version);
 
-        // Calculate TF-IDF
-        Map<String, Double> tfidfVector = new HashMap<>();
-        for (Map.Entry<String, Integer> entry : termFrequency.entrySet()) {
-            String term = entry.getKey();
-            int tf = entry.getValue();
-            double idf = inverseDocumentFrequency.getOrDefault(term, 0.0);
-            double tfidf = tf * idf;
-            tfidfVector.put(term, tfidf);
+        synchronized (this) {
+            if (model == restored) {
+                saveModel(restored);
+                Files.deleteIfExists(Paths.get(statisticsPath));
+            }
+        }
+        return restored.version;
+    }
+
+    /**
+     * Version, age and size of the current model, and the version a rollback would restore
+     */
+    public Map<String, Object> getModelStatus() {
+        TfIdfModel current = model;
+        TfIdfModel previous;
+        synchronized (statisticsLock) {
+            previous = previousModel;
+        }
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("version", current.version);
+        if (current != TfIdfModel.EMPTY) {
+            status.put("createdAt", current.createdAt.toString());
+            status.put("engine", current.engine.id);
+            if (current.hasher != null) {
+                status.put("hashingDimension", current.hasher.dimension);
+                status.put("hashingBigrams", current.hasher.bigrams);
+            } else {
+                status.put("vocabularySize", current.vocabulary.size());
+            }
+            status.put("categoryCount", current.categoryVectors.size());
+        }
+        if (previous != null) {
+            status.put("previousVersion", previous.version);
         }
+        return status;
+    }
 
-        // Normalize the vector
-        double magnitude = Math.sqrt(tfidfVector.values().stream()
-                .mapToDouble(v -> v * v)
-                .sum());
+    /**
+     * Empty counts for the configured vectorizer and engine
+     */
+    private TermCounts newCounts(boolean keepDocumentTerms) {
+        return new TermCounts(configuredHasher(), configuredEngine() != TfIdfModel.Engine.CENTROID, keepDocumentTerms);
+    }
 
-        if (magnitude > 0) {
-            tfidfVector.replaceAll((k, v) -> v / magnitude);
+    private TfIdfModel.Engine configuredEngine() {
+        TfIdfModel.Engine configured = TfIdfModel.Engine.fromConfig(engine);
+        if (configured == TfIdfModel.Engine.NAIVE_BAYES && configuredHasher() != null) {
+            // Its probabilities are over term counts, which signed hash buckets do not give
+            throw new IllegalStateException("naive-bayes engine needs the vocabulary vectorizer");
         }
+        return configured;
+    }
 
-        return tfidfVector;
+    private FeatureHasher configuredHasher() {
+        return "hashing".equalsIgnoreCase(vectorizer) ? new FeatureHasher(hashingDimension, hashingBigrams) : null;
     }
 
-    private double cosineSimilarity(Map<String, Double> vector1, Map<String, Double> vector2) {
-        double dotProduct = 0.0;
+    /**
+     * Model for the configured engine; for logistic regression, the centroid model whose
+     * feature space the weights are then fitted over
+     *
+     * @return The model, unversioned until published
+     */
+    private TfIdfModel buildModel(TermCounts counts) {
+        TfIdfModel.Engine configured = configuredEngine();
+        if (counts.hasher() != null) {
+            return buildHashedModel(counts);
+        }
+        // Document frequencies give both the vocabulary and the IDF scores
+        int[] termIds = selectVocabulary(counts);
+        List<String> terms = new ArrayList<>(termIds.length);
+        for (int id : termIds) {
+            terms.add(counts.term(id));
+        }
+        Vocabulary vocabulary = new Vocabulary(terms);
 
-        for (Map.Entry<String, Double> entry : vector1.entrySet()) {
-            String term = entry.getKey();
-            if (vector2.containsKey(term)) {
-                dotProduct += entry.getValue() * vector2.get(term);
+        logger.info("Built vocabulary with {} terms (min freq: {}, max features: {})",
+                   vocabulary.size(), minDocumentFrequency, maxFeatures);
+
+        // Calculate IDF scores
+        double[] inverseDocumentFrequency = calculateIDF(counts, termIds);
+        if (configured == TfIdfModel.Engine.NAIVE_BAYES) {
+            return buildNaiveBayesModel(counts, termIds, vocabulary, inverseDocumentFrequency);
+        }
+
+        // Create TF-IDF vectors for each category
+        Map<String, SparseVector> vectors = new HashMap<>();
+        for (String category : counts.categories()) {
+            if (counts.categoryDocuments(category) == 0) {
+                // Every document of the category has been reclassified
+                continue;
+            }
+            int[] termFrequency = new int[termIds.length];
+            for (int id = 0; id < termIds.length; id++) {
+                termFrequency[id] = counts.termCount(category, termIds[id]);
             }
+            SparseVector categoryVector = SparseVector.fromCounts(termFrequency, inverseDocumentFrequency)
+                    .top(centroidMaxTerms);
+
+            vectors.put(category, categoryVector);
+            logger.debug("Created TF-IDF vector for category: {} ({} features)", category, categoryVector.size());
         }
+        return new TfIdfModel(0, Instant.EPOCH, vocabulary, inverseDocumentFrequency, vectors);
+    }
 
-        return dotProduct; // Vectors are already normalized
+    /**
+     * Multinomial Naive Bayes over the vocabulary terms, with additive smoothing
+     *
+     * The log probability of term t in category c is {@code log((N_ct + a) / (N_c + a|V|))}.
+     * It is split into {@code log((N_ct + a) / a)}, zero for unseen terms and so stored only for
+     * the terms seen in the category, and the floor {@code log(a / (N_c + a|V|))} that every
+     * token gets, kept as the category's length weight. The IDF array is stored as for the other engines.
+     */
+    private TfIdfModel buildNaiveBayesModel(TermCounts counts, int[] termIds, Vocabulary vocabulary,
+                                            double[] inverseDocumentFrequency) {
+        double smoothing = naiveBayesSmoothing > 0 ? naiveBayesSmoothing : 1.0;
+        int totalDocuments = 0;
+        for (String category : counts.categories()) {
+            totalDocuments += counts.categoryDocuments(category);
+        }
+
+        Map<String, SparseVector> vectors = new HashMap<>();
+        Map<String, Double> prior = new HashMap<>();
+        Map<String, Double> floor = new HashMap<>();
+        for (String category : counts.categories()) {
+            int documents = counts.categoryDocuments(category);
+            if (documents == 0) {
+                continue;
+            }
+            int[] termFrequency = new int[termIds.length];
+            long tokens = 0;
+            int seen = 0;
+            for (int id = 0; id < termIds.length; id++) {
+                termFrequency[id] = counts.termCount(category, termIds[id]);
+                tokens += termFrequency[id];
+                if (termFrequency[id] > 0) {
+                    seen++;
+                }
+            }
+            int[] ids = new int[seen];
+            float[] weights = new float[seen];
+            for (int id = 0, n = 0; id < termIds.length; id++) {
+                if (termFrequency[id] > 0) {
+                    ids[n] = id;
+                    weights[n++] = (float) Math.log((termFrequency[id] + smoothing) / smoothing);
+                }
+            }
+            vectors.put(category, new SparseVector(ids, weights));
+            prior.put(category, Math.log((double) documents / totalDocuments));
+            floor.put(category, Math.log(smoothing / (tokens + smoothing * termIds.length)));
+        }
+        return new TfIdfModel(0, Instant.EPOCH, TfIdfModel.Engine.NAIVE_BAYES, vocabulary,
+                inverseDocumentFrequency, vectors, prior, floor, null);
     }
 
-    private List<String> tokenize(String text) {
-        if (text == null || text.trim().isEmpty()) {
-            return Collections.emptyList();
+    /**
+     * Fit one-vs-rest logistic regression over the feature space of a centroid model
+     *
+     * @param examples Training documents by id; fitted in id order so runs are repeatable
+     */
+    private TfIdfModel fitLogisticRegression(TfIdfModel space, Map<String, LogisticRegressionTrainer.Example> examples,
+                                             BooleanSupplier cancelled) {
+        long start = System.currentTimeMillis();
+        List<LogisticRegressionTrainer.Example> ordered = new ArrayList<>(new TreeMap<>(examples).values());
+        List<String> categories = new ArrayList<>(new TreeSet<>(space.categoryVectors.keySet()));
+        LogisticRegressionTrainer trainer = new LogisticRegressionTrainer(logisticRegressionEpochs,
+                logisticRegressionLearningRate, logisticRegressionBatchSize, logisticRegressionL2);
+        LogisticRegressionTrainer.Result result = trainer.train(ordered, categories,
+                space.inverseDocumentFrequency.length, trainingWorkers(), cancelled);
+        logger.info("Fitted logistic regression for {} categories on {} documents in {} ms ({} epochs)",
+                   categories.size(), ordered.size(), System.currentTimeMillis() - start,
+                   Math.max(1, logisticRegressionEpochs));
+        return new TfIdfModel(0, Instant.EPOCH, TfIdfModel.Engine.LOGISTIC_REGRESSION, space.vocabulary,
+                space.inverseDocumentFrequency, result.weights, result.bias, Map.of(), space.hasher);
+    }
+
+    /**
+     * Model over hash buckets: the same IDF weighting and minimum document frequency, with no
+     * vocabulary to select
+     */
+    private TfIdfModel buildHashedModel(TermCounts counts) {
+        FeatureHasher hasher = counts.hasher();
+        double[] inverseDocumentFrequency = new double[hasher.dimension];
+        int used = 0;
+        for (int bucket = 0; bucket < hasher.dimension; bucket++) {
+            int documentFrequency = counts.documentFrequency(bucket);
+            if (documentFrequency >= minDocumentFrequency && documentFrequency > 0) {
+                inverseDocumentFrequency[bucket] = Math.log((double) counts.documents() / documentFrequency);
+                used++;
+            }
         }
+        logger.info("Built {} feature space with {} buckets in use (min freq: {})",
+                   hasher, used, minDocumentFrequency);
 
-        // Convert to lowercase and split on non-word characters
-        return Arrays.stream(text.toLowerCase()
-                        .split("[\\W_]+"))
-                .filter(word -> word.length() > 2) // Minimum word length
-                .filter(word -> !stopWords.contains(word))
-                .collect(Collectors.toList());
+        Map<String, SparseVector> vectors = new HashMap<>();
+        for (String category : counts.categories()) {
+            if (counts.categoryDocuments(category) == 0) {
+                continue;
+            }
+            // Only the buckets the category has counts in, not a dense array over the dimension
+            int[] buckets = counts.termIds(category);
+            int[] termFrequency = new int[buckets.length];
+            for (int i = 0; i < buckets.length; i++) {
+                termFrequency[i] = counts.termCount(category, buckets[i]);
+            }
+            vectors.put(category, SparseVector.fromCounts(buckets, termFrequency, inverseDocumentFrequency)
+                    .top(centroidMaxTerms));
+        }
+        return new TfIdfModel(0, Instant.EPOCH, new Vocabulary(Collections.emptyList()),
+                inverseDocumentFrequency, vectors, hasher);
+    }
+
+    /**
+     * @return Term id in {@code counts} for each vocabulary id
+     */
+    private int[] selectVocabulary(TermCounts counts) {
+        // Filter words by document frequency and limit vocabulary size; ties by term keep
+        // the vocabulary independent of the order the workers counted documents in
+        int[] termIds = IntStream.range(0, counts.size())
+                .filter(id -> counts.documentFrequency(id) >= minDocumentFrequency)
+                .boxed()
+                .sorted(Comparator.comparingInt((Integer id) -> counts.documentFrequency(id)).reversed()
+                        .thenComparing(counts::term))
+                .limit(maxFeatures)
+                .mapToInt(Integer::intValue)
+                .toArray();
+        return termIds;
+    }
+
+    private double[] calculateIDF(TermCounts counts, int[] termIds) {
+        // Calculate IDF = log(total_documents / document_frequency)
+        double[] inverseDocumentFrequency = new double[termIds.length];
+        for (int id = 0; id < termIds.length; id++) {
+            inverseDocumentFrequency[id] = Math.log((double) counts.documents() / counts.documentFrequency(termIds[id]));
+        }
+
+        logger.debug("Calculated IDF scores for {} terms", inverseDocumentFrequency.length);
+        return inverseDocumentFrequency;
     }
 
     private String buildFullText(Document document, String pdfText) {
@@ -389,6 +1119,10 @@ public class MachineLearningClassifier implements Classifier {
                     fullText.append(value).append(" "));
         }
 
+        if (document.getHeadings() != null) {
+            document.getHeadings().forEach(heading -> fullText.append(heading).append(" "));
+        }
+
         if (pdfText != null && !pdfText.isEmpty()) {
             fullText.append(pdfText);
         }
@@ -406,37 +1140,192 @@ public class MachineLearningClassifier implements Classifier {
         ));
     }
 
-    private void saveModel() throws IOException {
+    private synchronized void saveModel(TfIdfModel model) throws IOException {
+        writeAtomically(modelPath, temp -> ModelFile.write(model, temp));
+        logger.info("ML model version {} saved to {}", model.version, modelPath);
+    }
+
+    /**
+     * Current model as pretty-printed JSON, keyed by term, for inspection or use elsewhere
+     */
+    public byte[] exportModelJson() throws IOException {
+        return objectMapper.writerWithDefaultPrettyPrinter().writeValueAsBytes(toModelData(model));
+    }
+
+    private static ModelData toModelData(TfIdfModel model) {
+        // Keyed by term, or by #bucket for hashed models, so the export is independent of ids
         ModelData modelData = new ModelData();
-        modelData.vocabulary = vocabulary;
-        modelData.inverseDocumentFrequency = inverseDocumentFrequency;
-        modelData.categoryVectors = categoryVectors;
-        modelData.trained = modelTrained;
+        modelData.vocabulary = new LinkedHashMap<>();
+        modelData.inverseDocumentFrequency = new LinkedHashMap<>();
+        for (int id = 0; id < model.inverseDocumentFrequency.length; id++) {
+            if (model.hasher != null && model.inverseDocumentFrequency[id] == 0) {
+                continue;
+            }
+            modelData.vocabulary.put(model.featureName(id), id);
+            modelData.inverseDocumentFrequency.put(model.featureName(id), model.inverseDocumentFrequency[id]);
+        }
+        modelData.categoryVectors = new HashMap<>();
+        for (Map.Entry<String, SparseVector> entry : model.categoryVectors.entrySet()) {
+            SparseVector vector = entry.getValue();
+            Map<String, Double> weights = new LinkedHashMap<>();
+            for (int i = 0; i < vector.size(); i++) {
+                weights.put(model.featureName(vector.ids[i]), (double) vector.weights[i]);
+            }
+            modelData.categoryVectors.put(entry.getKey(), weights);
+        }
+        modelData.engine = model.engine.id;
+        if (model.engine != TfIdfModel.Engine.CENTROID) {
+            modelData.categoryBias = new HashMap<>();
+            modelData.categoryLengthWeight = new HashMap<>();
+            for (String category : model.categoryVectors.keySet()) {
+                modelData.categoryBias.put(category, model.bias(category));
+                modelData.categoryLengthWeight.put(category, model.lengthWeight(category));
+            }
+        }
+        modelData.trained = model != TfIdfModel.EMPTY;
+        modelData.version = model.version;
+        modelData.createdAt = model.createdAt.toString();
+        return modelData;
+    }
 
-        File file = new File(modelPath);
-        objectMapper.writerWithDefaultPrettyPrinter().writeValue(file, modelData);
-        logger.info("ML model saved to {}", modelPath);
+    private synchronized void saveStatistics(TermCounts.Data data) throws IOException {
+        writeAtomically(statisticsPath, temp -> objectMapper.writeValue(temp.toFile(), data));
+        logger.debug("ML model statistics saved to {} ({} documents)", statisticsPath, data.documents);
     }
 
-    private void loadModel() throws IOException {
-        File file = new File(modelPath);
+    private void loadStatistics() {
+        File file = new File(statisticsPath);
         if (!file.exists()) {
-            throw new IOException("Model file not found: " + modelPath);
+            logger.info("No ML model statistics at {}. Incremental updates start after the next training", statisticsPath);
+            return;
+        }
+        try {
+            TermCounts loaded = TermCounts.fromData(objectMapper.readValue(file, TermCounts.Data.class));
+            if (!Objects.equals(loaded.hasher(), configuredHasher())
+                    || loaded.multiLabel() != (configuredEngine() != TfIdfModel.Engine.CENTROID)) {
+                logger.warn("ML model statistics at {} were counted with a different vectorizer or engine. "
+                           + "Incremental updates start after the next training", statisticsPath);
+                return;
+            }
+            synchronized (statisticsLock) {
+                statistics = loaded;
+            }
+            logger.info("Loaded ML model statistics from {} ({} documents, {} {})",
+                       statisticsPath, loaded.documents(), loaded.size(), loaded.hasher() != null ? "buckets" : "terms");
+        } catch (IOException e) {
+            logger.warn("Failed to load ML model statistics from {}: {}. Incremental updates start after the next training",
+                       statisticsPath, e.getMessage());
+        }
+    }
+
+    private static void writeAtomically(String target, TempFileWriter writer) throws IOException {
+        // Write-then-rename, so a crash mid-write never leaves a truncated file behind
+        Path path = Paths.get(target).toAbsolutePath();
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        writer.write(temp);
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @FunctionalInterface
+    private interface TempFileWriter {
+        void write(Path temp) throws IOException;
+    }
+
+    private void loadModel() throws IOException {
+        Path path = Paths.get(modelPath);
+        Path source = path;
+        if (!Files.exists(path)) {
+            // Models used to be saved as JSON; pick up one left next to the binary file's path
+            String name = path.getFileName().toString();
+            int extension = name.lastIndexOf('.');
+            source = path.resolveSibling((extension > 0 ? name.substring(0, extension) : name) + ".json");
+            if (!Files.exists(source)) {
+                throw new IOException("Model file not found: " + modelPath);
+            }
+        }
+
+        long start = System.nanoTime();
+        TfIdfModel loaded = ModelFile.isModelFile(source) ? ModelFile.read(source) : readJsonModel(source);
+        if (loaded == null) {
+            return;
+        }
+        synchronized (statisticsLock) {
+            lastVersion = Math.max(lastVersion, loaded.version);
+            model = loaded;
         }
+        logger.info("Loaded ML model version {} from {} in {} ms: {} categories, {}",
+                   loaded.version, source, (System.nanoTime() - start) / 1_000_000,
+                   loaded.categoryVectors.size(), loaded.describeFeatures());
+
+        if (!source.equals(path)) {
+            saveModel(loaded);
+            logger.info("Converted JSON model {} to the binary format at {}", source, modelPath);
+        }
+    }
 
+    /**
+     * Read a model saved in the JSON format used before the binary one
+     *
+     * @return The model, or null if the file holds an untrained model
+     */
+    private TfIdfModel readJsonModel(Path source) throws IOException {
+        File file = source.toFile();
         ModelData modelData = objectMapper.readValue(file, ModelData.class);
-        this.vocabulary = modelData.vocabulary;
-        this.inverseDocumentFrequency = modelData.inverseDocumentFrequency;
-        this.categoryVectors = modelData.categoryVectors;
-        this.modelTrained = modelData.trained;
+        Vocabulary loadedVocabulary = new Vocabulary(modelData.vocabulary.keySet());
+        double[] loadedIdf = new double[loadedVocabulary.size()];
+        modelData.inverseDocumentFrequency.forEach((term, idf) -> {
+            int id = loadedVocabulary.id(term);
+            if (id >= 0) {
+                loadedIdf[id] = idf;
+            }
+        });
 
-        logger.debug("Loaded model: {} categories, {} vocabulary terms",
-                    categoryVectors.size(), vocabulary.size());
+        Map<String, SparseVector> loadedVectors = new HashMap<>();
+        for (Map.Entry<String, Map<String, Double>> entry : modelData.categoryVectors.entrySet()) {
+            loadedVectors.put(entry.getKey(), toSparseVector(entry.getValue(), loadedVocabulary));
+        }
+
+        if (!modelData.trained) {
+            return null;
+        }
+        // Files written before models were versioned count as version 1
+        long version = Math.max(1, modelData.version);
+        Instant createdAt = modelData.createdAt != null
+                ? Instant.parse(modelData.createdAt) : Instant.ofEpochMilli(file.lastModified());
+        TfIdfModel.Engine engine = modelData.engine != null
+                ? TfIdfModel.Engine.fromConfig(modelData.engine) : TfIdfModel.Engine.CENTROID;
+        return new TfIdfModel(version, createdAt, engine, loadedVocabulary, loadedIdf, loadedVectors,
+                modelData.categoryBias != null ? modelData.categoryBias : Map.of(),
+                modelData.categoryLengthWeight != null ? modelData.categoryLengthWeight : Map.of(), null);
+    }
+
+    private static SparseVector toSparseVector(Map<String, Double> weights, Vocabulary vocabulary) {
+        long[] packed = new long[weights.size()];
+        double[] raw = new double[weights.size()];
+        int n = 0;
+        for (Map.Entry<String, Double> entry : weights.entrySet()) {
+            int id = vocabulary.id(entry.getKey());
+            if (id >= 0) {
+                // Pack id and position so one primitive sort orders ids and weights together
+                packed[n] = ((long) id << 32) | n;
+                raw[n] = entry.getValue();
+                n++;
+            }
+        }
+        Arrays.sort(packed, 0, n);
+
+        int[] ids = new int[n];
+        float[] sorted = new float[n];
+        for (int i = 0; i < n; i++) {
+            ids[i] = (int) (packed[i] >>> 32);
+            sorted[i] = (float) raw[(int) packed[i]];
+        }
+        return new SparseVector(ids, sorted);
     }
 
     @Override
     public String getClassifierName() {
-        return CLASSIFIER_NAME;
+        return "ml-" + model.engine.id;
     }
 
     @Override
@@ -449,18 +1338,23 @@ public class MachineLearningClassifier implements Classifier {
     }
 
     public boolean isModelTrained() {
-        return modelTrained;
+        return model != TfIdfModel.EMPTY;
     }
 
     public Set<String> getCategories() {
-        return new HashSet<>(categoryVectors.keySet());
+        return new HashSet<>(model.categoryVectors.keySet());
     }
 
-    // Inner class for model persistence
+    // JSON model layout: the export format, and the saved format before the binary one
     private static class ModelData {
         public Map<String, Integer> vocabulary;
         public Map<String, Double> inverseDocumentFrequency;
         public Map<String, Map<String, Double>> categoryVectors;
         public boolean trained;
+        public long version;
+        public String createdAt;
+        public String engine;
+        public Map<String, Double> categoryBias;
+        public Map<String, Double> categoryLengthWeight;
     }
 }
\ No newline at end of file
@@ -0,0 +1,186 @@
+package org.cacummaro.service.classification;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Binary model file: a string table and primitive arrays, read back through a memory map
+ *
+ * Layout, big-endian:
+ * <pre>
+ * int    magic "CMML", int format version
+ * long   model version, long created-at seconds, int created-at nanos
+ * int    hashing dimension, 0 for a vocabulary model; byte 1 if bigrams are hashed too
+ * byte   engine ordinal
+ * int    term count n, int[n + 1] offsets into the term bytes, byte[] UTF-8 term bytes
+ * int    IDF count d (n, or the hashing dimension), double[d] IDF by feature id
+ * int    category count, then per category:
+ *        int name length, byte[] UTF-8 name, double bias, double length weight,
+ *        int entries m, int[m] vocabulary ids, float[m] weights
+ * </pre>
+ *
+ * Arrays are copied out of the mapping with bulk gets, so loading costs one pass over the
+ * file with no parsing, and the mapping is not needed once the model is built. Older formats
+ * are still read: format 1 has no hashing fields and n IDF values with no count, and formats
+ * 1 and 2 hold centroid models with no engine, bias or length weight.
+ */
+final class ModelFile {
+
+    private static final int MAGIC = 0x434D4D4C; // "CMML"
+    private static final int FORMAT_VERSION = 3;
+    private static final TfIdfModel.Engine[] ENGINES = TfIdfModel.Engine.values();
+
+    private ModelFile() {
+    }
+
+    /**
+     * @return true if the file starts with the binary model magic number
+     */
+    static boolean isModelFile(Path path) throws IOException {
+        try (InputStream in = Files.newInputStream(path)) {
+            byte[] header = in.readNBytes(4);
+            return header.length == 4 && ByteBuffer.wrap(header).getInt() == MAGIC;
+        }
+    }
+
+    static void write(TfIdfModel model, Path path) throws IOException {
+        Vocabulary vocabulary = model.vocabulary;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(model.version);
+            out.writeLong(model.createdAt.getEpochSecond());
+            out.writeInt(model.createdAt.getNano());
+            FeatureHasher hasher = model.hasher;
+            out.writeInt(hasher != null ? hasher.dimension : 0);
+            out.writeBoolean(hasher != null && hasher.bigrams);
+            out.writeByte(model.engine.ordinal());
+
+            int termCount = vocabulary.size();
+            byte[][] termBytes = new byte[termCount][];
+            out.writeInt(termCount);
+            int offset = 0;
+            out.writeInt(offset);
+            for (int id = 0; id < termCount; id++) {
+                termBytes[id] = vocabulary.term(id).getBytes(StandardCharsets.UTF_8);
+                offset += termBytes[id].length;
+                out.writeInt(offset);
+            }
+            for (byte[] term : termBytes) {
+                out.write(term);
+            }
+            out.writeInt(model.inverseDocumentFrequency.length);
+            for (double idf : model.inverseDocumentFrequency) {
+                out.writeDouble(idf);
+            }
+
+            out.writeInt(model.categoryVectors.size());
+            for (Map.Entry<String, SparseVector> entry : model.categoryVectors.entrySet()) {
+                byte[] name = entry.getKey().getBytes(StandardCharsets.UTF_8);
+                out.writeInt(name.length);
+                out.write(name);
+                out.writeDouble(model.bias(entry.getKey()));
+                out.writeDouble(model.lengthWeight(entry.getKey()));
+                SparseVector vector = entry.getValue();
+                out.writeInt(vector.size());
+                for (int i = 0; i < vector.size(); i++) {
+                    out.writeInt(vector.ids[i]);
+                }
+                for (int i = 0; i < vector.size(); i++) {
+                    out.writeFloat(vector.weights[i]);
+                }
+            }
+        }
+    }
+
+    static TfIdfModel read(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return read(buffer);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IOException("Truncated model file: " + path, e);
+        }
+    }
+
+    private static TfIdfModel read(ByteBuffer buffer) throws IOException {
+        if (buffer.getInt() != MAGIC) {
+            throw new IOException("Not a binary model file");
+        }
+        int format = buffer.getInt();
+        if (format < 1 || format > FORMAT_VERSION) {
+            throw new IOException("Unsupported model file format version " + format);
+        }
+        long version = buffer.getLong();
+        Instant createdAt = Instant.ofEpochSecond(buffer.getLong(), buffer.getInt());
+        FeatureHasher hasher = null;
+        if (format >= 2) {
+            int dimension = buffer.getInt();
+            boolean bigrams = buffer.get() != 0;
+            hasher = dimension > 0 ? new FeatureHasher(dimension, bigrams) : null;
+        }
+        TfIdfModel.Engine engine = TfIdfModel.Engine.CENTROID;
+        if (format >= 3) {
+            int ordinal = buffer.get();
+            if (ordinal < 0 || ordinal >= ENGINES.length) {
+                throw new IOException("Unknown model engine " + ordinal);
+            }
+            engine = ENGINES[ordinal];
+        }
+
+        int termCount = buffer.getInt();
+        int[] offsets = getInts(buffer, termCount + 1);
+        byte[] termBytes = new byte[offsets[termCount]];
+        buffer.get(termBytes);
+        String[] terms = new String[termCount];
+        for (int id = 0; id < termCount; id++) {
+            terms[id] = new String(termBytes, offsets[id], offsets[id + 1] - offsets[id], StandardCharsets.UTF_8);
+        }
+        double[] inverseDocumentFrequency = new double[format >= 2 ? buffer.getInt() : termCount];
+        buffer.asDoubleBuffer().get(inverseDocumentFrequency);
+        buffer.position(buffer.position() + inverseDocumentFrequency.length * Double.BYTES);
+
+        int categoryCount = buffer.getInt();
+        Map<String, SparseVector> categoryVectors = new HashMap<>();
+        Map<String, Double> bias = new HashMap<>();
+        Map<String, Double> lengthWeight = new HashMap<>();
+        for (int c = 0; c < categoryCount; c++) {
+            byte[] nameBytes = new byte[buffer.getInt()];
+            buffer.get(nameBytes);
+            String name = new String(nameBytes, StandardCharsets.UTF_8);
+            if (format >= 3) {
+                bias.put(name, buffer.getDouble());
+                lengthWeight.put(name, buffer.getDouble());
+            }
+            int entries = buffer.getInt();
+            int[] ids = getInts(buffer, entries);
+            float[] weights = new float[entries];
+            buffer.asFloatBuffer().get(weights);
+            buffer.position(buffer.position() + entries * Float.BYTES);
+            categoryVectors.put(name, new SparseVector(ids, weights));
+        }
+
+        return new TfIdfModel(version, createdAt, engine, new Vocabulary(Arrays.asList(terms)),
+                inverseDocumentFrequency, categoryVectors, bias, lengthWeight, hasher);
+    }
+
+    private static int[] getInts(ByteBuffer buffer, int count) {
+        int[] values = new int[count];
+        buffer.asIntBuffer().get(values);
+        buffer.position(buffer.position() + count * Integer.BYTES);
+        return values;
+    }
+}
@@ -0,0 +1,235 @@
+package org.cacummaro.service.classification;
+
+import java.util.Arrays;
+
+/**
+ * Immutable sparse vector of vocabulary ids (or hash buckets) and float weights, sorted by id
+ * so dot products are a merge join over two primitive arrays.
+ */
+final class SparseVector {
+
+    static final SparseVector EMPTY = new SparseVector(new int[0], new float[0]);
+
+    final int[] ids;
+    final float[] weights;
+
+    SparseVector(int[] ids, float[] weights) {
+        this.ids = ids;
+        this.weights = weights;
+    }
+
+    /**
+     * Build a unit-length TF-IDF vector from the vocabulary ids of a document's tokens
+     *
+     * @param tokenIds Ids of the in-vocabulary tokens, in any order; sorted in place
+     * @param count Number of valid entries in {@code tokenIds}
+     * @param idf IDF per vocabulary id
+     */
+    static SparseVector tfIdf(int[] tokenIds, int count, double[] idf) {
+        if (count == 0) {
+            return EMPTY;
+        }
+        Arrays.sort(tokenIds, 0, count);
+
+        int distinct = 1;
+        for (int i = 1; i < count; i++) {
+            if (tokenIds[i] != tokenIds[i - 1]) {
+                distinct++;
+            }
+        }
+
+        int[] ids = new int[distinct];
+        double[] raw = new double[distinct];
+        int n = 0;
+        for (int i = 0; i < count; ) {
+            int id = tokenIds[i];
+            int tf = 0;
+            while (i < count && tokenIds[i] == id) {
+                tf++;
+                i++;
+            }
+            ids[n] = id;
+            raw[n] = tf * idf[id];
+            n++;
+        }
+        return normalized(ids, raw);
+    }
+
+    /**
+     * Build a vector of raw term frequencies from the vocabulary ids of a document's tokens
+     *
+     * @param tokenIds Ids of the in-vocabulary tokens, in any order; sorted in place
+     * @param count Number of valid entries in {@code tokenIds}
+     */
+    static SparseVector termFrequencies(int[] tokenIds, int count) {
+        if (count == 0) {
+            return EMPTY;
+        }
+        Arrays.sort(tokenIds, 0, count);
+
+        int[] ids = new int[count];
+        float[] weights = new float[count];
+        int n = 0;
+        for (int i = 0; i < count; ) {
+            int id = tokenIds[i];
+            int tf = 0;
+            while (i < count && tokenIds[i] == id) {
+                tf++;
+                i++;
+            }
+            ids[n] = id;
+            weights[n] = tf;
+            n++;
+        }
+        return new SparseVector(Arrays.copyOf(ids, n), Arrays.copyOf(weights, n));
+    }
+
+    /**
+     * Build a unit-length TF-IDF vector from hashed features of a document
+     *
+     * @param features Bucket of each feature shifted left by one, with the low bit set for a
+     *                 negative sign, in any order; sorted in place
+     * @param count Number of valid entries in {@code features}
+     * @param idf IDF per bucket
+     */
+    static SparseVector signedTfIdf(long[] features, int count, double[] idf) {
+        if (count == 0) {
+            return EMPTY;
+        }
+        Arrays.sort(features, 0, count);
+
+        int[] ids = new int[count];
+        double[] raw = new double[count];
+        int n = 0;
+        for (int i = 0; i < count; ) {
+            int id = (int) (features[i] >>> 1);
+            int tf = 0;
+            while (i < count && (int) (features[i] >>> 1) == id) {
+                tf += (features[i] & 1) == 0 ? 1 : -1;
+                i++;
+            }
+            if (tf != 0 && idf[id] != 0) {
+                ids[n] = id;
+                raw[n] = tf * idf[id];
+                n++;
+            }
+        }
+        return normalized(Arrays.copyOf(ids, n), Arrays.copyOf(raw, n));
+    }
+
+    /**
+     * Build a unit-length TF-IDF vector from term frequencies indexed by vocabulary id; hashed
+     * term frequencies may be negative
+     */
+    static SparseVector fromCounts(int[] counts, double[] idf) {
+        // Zero-weight entries, e.g. buckets below the minimum document frequency, are left out
+        int distinct = 0;
+        for (int id = 0; id < counts.length; id++) {
+            if (counts[id] != 0 && idf[id] != 0) {
+                distinct++;
+            }
+        }
+
+        int[] ids = new int[distinct];
+        double[] raw = new double[distinct];
+        int n = 0;
+        for (int id = 0; id < counts.length; id++) {
+            if (counts[id] != 0 && idf[id] != 0) {
+                ids[n] = id;
+                raw[n] = counts[id] * idf[id];
+                n++;
+            }
+        }
+        return normalized(ids, raw);
+    }
+
+    /**
+     * Same as {@link #fromCounts(int[], double[])}, from only the ids that have a count
+     *
+     * @param ids Ids with a count, ascending
+     * @param counts Count of each of {@code ids}
+     */
+    static SparseVector fromCounts(int[] ids, int[] counts, double[] idf) {
+        int distinct = 0;
+        for (int i = 0; i < ids.length; i++) {
+            if (counts[i] != 0 && idf[ids[i]] != 0) {
+                distinct++;
+            }
+        }
+
+        int[] kept = new int[distinct];
+        double[] raw = new double[distinct];
+        int n = 0;
+        for (int i = 0; i < ids.length; i++) {
+            if (counts[i] != 0 && idf[ids[i]] != 0) {
+                kept[n] = ids[i];
+                raw[n] = counts[i] * idf[ids[i]];
+                n++;
+            }
+        }
+        return normalized(kept, raw);
+    }
+
+    static SparseVector normalized(int[] ids, double[] raw) {
+        double magnitude = 0;
+        for (double weight : raw) {
+            magnitude += weight * weight;
+        }
+        magnitude = Math.sqrt(magnitude);
+
+        float[] weights = new float[raw.length];
+        for (int i = 0; i < raw.length; i++) {
+            weights[i] = (float) (magnitude > 0 ? raw[i] / magnitude : raw[i]);
+        }
+        return new SparseVector(ids, weights);
+    }
+
+    /**
+     * Keep the {@code limit} largest weights by magnitude, rescaled to unit length again
+     */
+    SparseVector top(int limit) {
+        if (limit <= 0 || ids.length <= limit) {
+            return this;
+        }
+        // Magnitudes are non-negative, so their float bits sort like the values; the low half keeps the index
+        long[] ranked = new long[ids.length];
+        for (int i = 0; i < ranked.length; i++) {
+            ranked[i] = ((long) Float.floatToIntBits(Math.abs(weights[i])) << 32) | i;
+        }
+        Arrays.sort(ranked);
+        int[] kept = new int[limit];
+        for (int i = 0; i < limit; i++) {
+            kept[i] = (int) ranked[ranked.length - 1 - i];
+        }
+        // Positions in id order give the ids in order
+        Arrays.sort(kept);
+
+        int[] topIds = new int[limit];
+        double[] raw = new double[limit];
+        for (int i = 0; i < limit; i++) {
+            topIds[i] = ids[kept[i]];
+            raw[i] = weights[kept[i]];
+        }
+        return normalized(topIds, raw);
+    }
+
+    int size() {
+        return ids.length;
+    }
+
+    double dot(SparseVector other) {
+        double dot = 0;
+        int i = 0;
+        int j = 0;
+        while (i < ids.length && j < other.ids.length) {
+            if (ids[i] == other.ids[j]) {
+                dot += (double) weights[i++] * other.weights[j++];
+            } else if (ids[i] < other.ids[j]) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        return dot;
+    }
+}
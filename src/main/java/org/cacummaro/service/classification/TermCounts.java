@@ -0,0 +1,535 @@
+package org.cacummaro.service.classification;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Term statistics accumulated during training in place of the training texts
+ *
+ * Holds per-term document frequencies and per-category term frequencies over every term seen,
+ * since the vocabulary is only known once the whole corpus has been counted. Memory grows with
+ * the number of distinct terms and documents, not with the length of the texts. With a
+ * {@link FeatureHasher} the ids are hash buckets instead, counts are signed, and memory is
+ * bounded by the hashing dimension however many distinct terms the corpus has. Category counts
+ * are kept sparsely, so a category takes memory for the terms or buckets it has seen rather
+ * than for the whole id space. A document may be counted under several categories; it then
+ * counts once towards the document frequencies and once towards each of its categories.
+ *
+ * For incremental updates the (id, count) pairs each document was counted with are kept,
+ * varint-encoded at a few bytes per distinct term, so a deleted or recategorised document is
+ * subtracted exactly as it was added even after its text or metadata changed. Not thread-safe:
+ * each training worker fills its own instance and the instances are merged at the end;
+ * incremental updates are serialised by the classifier.
+ */
+final class TermCounts {
+
+    private String[] terms = new String[1024];
+    private int[] documentFrequency = new int[1024];
+    private int size;
+
+    private String[] slots = new String[2048];
+    private int[] slotIds = new int[2048];
+
+    // Null when ids are vocabulary terms
+    private final FeatureHasher hasher;
+    // Whether documents are counted under all their categories or only the primary one
+    private final boolean multiLabel;
+
+    private final Map<String, CategoryCounts> categories = new HashMap<>();
+    // Categories each counted document was counted under, so updates can be applied once
+    private final Map<String, List<String>> documentLabels = new HashMap<>();
+    // Encoded (id, count) pairs each counted document was counted with; null if not kept
+    private final Map<String, byte[]> documentTerms;
+    private int documents;
+
+    // Packed (id << 1 | negative sign) per token of the document being counted
+    private long[] occurrences = new long[1024];
+    private int occurrenceCount;
+
+    TermCounts() {
+        this(null, false, false);
+    }
+
+    /**
+     * @param keepDocumentTerms Whether to keep what each document was counted with, so it can
+     *                          be removed again; needed for incremental updates only
+     */
+    TermCounts(FeatureHasher hasher, boolean multiLabel, boolean keepDocumentTerms) {
+        this.hasher = hasher;
+        this.multiLabel = multiLabel;
+        this.documentTerms = keepDocumentTerms ? new HashMap<>() : null;
+        if (hasher != null) {
+            documentFrequency = new int[hasher.dimension];
+            size = hasher.dimension;
+        }
+    }
+
+    /**
+     * @return Feature hasher the ids are buckets of, or null if they are vocabulary terms
+     */
+    FeatureHasher hasher() {
+        return hasher;
+    }
+
+    boolean multiLabel() {
+        return multiLabel;
+    }
+
+    /**
+     * Count one training document
+     *
+     * @param documentId Id of the document
+     * @param labels Categories the document is labelled with
+     * @param text Full text of the document
+     * @param tokenizer Tokenizer shared by training and classification
+     */
+    void addDocument(String documentId, List<String> labels, CharSequence text, Tokenizer tokenizer) {
+        int[] pairs = countTerms(text, tokenizer);
+        documents++;
+        documentLabels.put(documentId, labels);
+        apply(labels, pairs, 1);
+        if (documentTerms != null) {
+            documentTerms.put(documentId, encode(pairs));
+        }
+    }
+
+    /**
+     * Take a counted document out again, e.g. before counting it under a new category
+     *
+     * Subtracts the terms the document was counted with. Counts read from a file written
+     * without them only lose the document from the document and category totals.
+     *
+     * @param documentId Id of the document
+     * @return Whether the document had been counted
+     */
+    boolean removeDocument(String documentId) {
+        List<String> labels = documentLabels.remove(documentId);
+        if (labels == null) {
+            return false;
+        }
+        documents--;
+        byte[] counted = documentTerms != null ? documentTerms.remove(documentId) : null;
+        apply(labels, counted != null ? decode(counted) : new int[0], -1);
+        return true;
+    }
+
+    /**
+     * @return The document's distinct ids and their counts as (id, count) pairs, ids ascending
+     */
+    private int[] countTerms(CharSequence text, Tokenizer tokenizer) {
+        occurrenceCount = 0;
+        if (hasher != null) {
+            hasher.features(text, tokenizer, this::addOccurrence);
+        } else {
+            tokenizer.tokenize(text, (token, length, hash) -> addOccurrence(intern(token, length, hash), 1));
+        }
+        Arrays.sort(occurrences, 0, occurrenceCount);
+
+        int[] pairs = new int[Math.min(occurrenceCount, size) * 2];
+        int n = 0;
+        for (int i = 0; i < occurrenceCount; ) {
+            int id = (int) (occurrences[i] >>> 1);
+            int count = 0;
+            for (; i < occurrenceCount && (int) (occurrences[i] >>> 1) == id; i++) {
+                count += (occurrences[i] & 1) != 0 ? -1 : 1;
+            }
+            pairs[n++] = id;
+            pairs[n++] = count;
+        }
+        return Arrays.copyOf(pairs, n);
+    }
+
+    private void addOccurrence(int id, int sign) {
+        if (occurrenceCount == occurrences.length) {
+            occurrences = Arrays.copyOf(occurrences, occurrenceCount * 2);
+        }
+        occurrences[occurrenceCount++] = ((long) id << 1) | (sign < 0 ? 1 : 0);
+    }
+
+    /**
+     * Add ({@code direction} 1) or subtract (-1) a document's pairs under its labels
+     */
+    private void apply(List<String> labels, int[] pairs, int direction) {
+        CategoryCounts[] counts = new CategoryCounts[labels.size()];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = categories.computeIfAbsent(labels.get(i), key -> new CategoryCounts());
+            counts[i].documents += direction;
+        }
+        for (int i = 0; i < pairs.length; i += 2) {
+            documentFrequency[pairs[i]] += direction;
+            for (CategoryCounts category : counts) {
+                category.increment(pairs[i], direction * pairs[i + 1]);
+            }
+        }
+    }
+
+    // Ids as ascending varint deltas, counts as zigzag varints
+    private static byte[] encode(int[] pairs) {
+        byte[] out = new byte[pairs.length * 5];
+        int n = 0;
+        int previous = 0;
+        for (int i = 0; i < pairs.length; i += 2) {
+            n = writeVarint(out, n, pairs[i] - previous);
+            n = writeVarint(out, n, (pairs[i + 1] << 1) ^ (pairs[i + 1] >> 31));
+            previous = pairs[i];
+        }
+        return Arrays.copyOf(out, n);
+    }
+
+    private static int writeVarint(byte[] out, int n, int value) {
+        while ((value & ~0x7F) != 0) {
+            out[n++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out[n++] = (byte) value;
+        return n;
+    }
+
+    private static int[] decode(byte[] encoded) {
+        int[] pairs = new int[Math.max(2, encoded.length)];
+        int n = 0;
+        int id = 0;
+        int value = 0;
+        int shift = 0;
+        for (byte b : encoded) {
+            value |= (b & 0x7F) << shift;
+            if (b < 0) {
+                shift += 7;
+                continue;
+            }
+            // Every pair takes at least two bytes, so the array never overflows
+            if ((n & 1) == 0) {
+                id += value;
+                pairs[n++] = id;
+            } else {
+                pairs[n++] = (value >>> 1) ^ -(value & 1);
+            }
+            value = 0;
+            shift = 0;
+        }
+        return Arrays.copyOf(pairs, n);
+    }
+
+    /**
+     * @return Categories the document is counted under, or null if it is not counted
+     */
+    List<String> labelsOf(String documentId) {
+        return documentLabels.get(documentId);
+    }
+
+    /**
+     * @return Ids of the counted documents
+     */
+    Set<String> documentIds() {
+        return documentLabels.keySet();
+    }
+
+    /**
+     * Add another worker's counts to these
+     */
+    void merge(TermCounts other) {
+        int[] ids = new int[other.size];
+        for (int otherId = 0; otherId < other.size; otherId++) {
+            if (hasher != null) {
+                ids[otherId] = otherId;
+            } else {
+                String term = other.terms[otherId];
+                ids[otherId] = intern(term, term.hashCode());
+            }
+            documentFrequency[ids[otherId]] += other.documentFrequency[otherId];
+        }
+        for (Map.Entry<String, CategoryCounts> entry : other.categories.entrySet()) {
+            CategoryCounts source = entry.getValue();
+            CategoryCounts target = categories.computeIfAbsent(entry.getKey(), key -> new CategoryCounts());
+            target.documents += source.documents;
+            for (int slot = 0; slot < source.keys.length; slot++) {
+                if (source.keys[slot] != CategoryCounts.FREE && source.values[slot] != 0) {
+                    target.increment(ids[source.keys[slot]], source.values[slot]);
+                }
+            }
+        }
+        documents += other.documents;
+        documentLabels.putAll(other.documentLabels);
+        if (documentTerms != null && other.documentTerms != null) {
+            for (Map.Entry<String, byte[]> entry : other.documentTerms.entrySet()) {
+                documentTerms.put(entry.getKey(), hasher != null ? entry.getValue() : remap(entry.getValue(), ids));
+            }
+        }
+    }
+
+    /**
+     * Re-encode a document's pairs in this instance's ids
+     */
+    private static byte[] remap(byte[] encoded, int[] ids) {
+        int[] pairs = decode(encoded);
+        long[] packed = new long[pairs.length / 2];
+        for (int i = 0; i < packed.length; i++) {
+            packed[i] = ((long) ids[pairs[2 * i]] << 32) | (pairs[2 * i + 1] & 0xFFFFFFFFL);
+        }
+        Arrays.sort(packed);
+        for (int i = 0; i < packed.length; i++) {
+            pairs[2 * i] = (int) (packed[i] >>> 32);
+            pairs[2 * i + 1] = (int) packed[i];
+        }
+        return encode(pairs);
+    }
+
+    int documents() {
+        return documents;
+    }
+
+    int size() {
+        return size;
+    }
+
+    String term(int id) {
+        return terms[id];
+    }
+
+    int documentFrequency(int id) {
+        return documentFrequency[id];
+    }
+
+    Set<String> categories() {
+        return categories.keySet();
+    }
+
+    int categoryDocuments(String category) {
+        CategoryCounts counts = categories.get(category);
+        return counts != null ? counts.documents : 0;
+    }
+
+    int termCount(String category, int id) {
+        CategoryCounts counts = categories.get(category);
+        return counts != null ? counts.get(id) : 0;
+    }
+
+    /**
+     * @return Ids with a non-zero count in the category, ascending
+     */
+    int[] termIds(String category) {
+        CategoryCounts counts = categories.get(category);
+        return counts != null ? counts.ids() : new int[0];
+    }
+
+    private int intern(char[] token, int length, int hash) {
+        int slot = hash & (slots.length - 1);
+        for (String candidate = slots[slot]; candidate != null; candidate = slots[slot]) {
+            if (Tokenizer.matches(candidate, token, length)) {
+                return slotIds[slot];
+            }
+            slot = (slot + 1) & (slots.length - 1);
+        }
+        // Only terms seen for the first time become Strings
+        return add(new String(token, 0, length), slot);
+    }
+
+    private int intern(String term, int hash) {
+        int slot = hash & (slots.length - 1);
+        for (String candidate = slots[slot]; candidate != null; candidate = slots[slot]) {
+            if (candidate.equals(term)) {
+                return slotIds[slot];
+            }
+            slot = (slot + 1) & (slots.length - 1);
+        }
+        return add(term, slot);
+    }
+
+    private int add(String term, int slot) {
+        int id = size++;
+        if (id == terms.length) {
+            terms = Arrays.copyOf(terms, id * 2);
+            documentFrequency = Arrays.copyOf(documentFrequency, id * 2);
+        }
+        terms[id] = term;
+        slots[slot] = term;
+        slotIds[slot] = id;
+        if (size * 2 > slots.length) {
+            rehash();
+        }
+        return id;
+    }
+
+    private void rehash() {
+        slots = new String[slots.length * 2];
+        slotIds = new int[slots.length];
+        int mask = slots.length - 1;
+        for (int id = 0; id < size; id++) {
+            int slot = terms[id].hashCode() & mask;
+            while (slots[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = terms[id];
+            slotIds[slot] = id;
+        }
+    }
+
+    /**
+     * Term id -> count in one category, in an open-addressing table. Entries whose count falls
+     * back to 0 stay in the table and are skipped when reading it.
+     */
+    private static final class CategoryCounts {
+        static final int FREE = -1;
+
+        int[] keys = free(256);
+        int[] values = new int[256];
+        // 32 - log2(keys.length), so the top bits of the product pick the slot
+        int shift = 24;
+        int entries;
+        int documents;
+
+        int get(int id) {
+            int slot = slot(id);
+            return keys[slot] == id ? values[slot] : 0;
+        }
+
+        void increment(int id, int by) {
+            int slot = slot(id);
+            if (keys[slot] == FREE) {
+                if (by == 0) {
+                    return;
+                }
+                if ((entries + 1) * 2 > keys.length) {
+                    grow();
+                    slot = slot(id);
+                }
+                keys[slot] = id;
+                entries++;
+            }
+            values[slot] += by;
+        }
+
+        int[] ids() {
+            int[] ids = new int[entries];
+            int n = 0;
+            for (int slot = 0; slot < keys.length; slot++) {
+                if (keys[slot] != FREE && values[slot] != 0) {
+                    ids[n++] = keys[slot];
+                }
+            }
+            ids = Arrays.copyOf(ids, n);
+            Arrays.sort(ids);
+            return ids;
+        }
+
+        private int slot(int id) {
+            int mask = keys.length - 1;
+            // Fibonacci hashing, so runs of consecutive ids do not cluster
+            int slot = (id * 0x9E3779B9) >>> shift;
+            while (keys[slot] != FREE && keys[slot] != id) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        private void grow() {
+            int[] oldKeys = keys;
+            int[] oldValues = values;
+            keys = free(oldKeys.length * 2);
+            values = new int[keys.length];
+            shift--;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != FREE) {
+                    int slot = slot(oldKeys[i]);
+                    keys[slot] = oldKeys[i];
+                    values[slot] = oldValues[i];
+                }
+            }
+        }
+
+        private static int[] free(int length) {
+            int[] keys = new int[length];
+            Arrays.fill(keys, FREE);
+            return keys;
+        }
+    }
+
+    Data toData() {
+        Data data = new Data();
+        if (hasher != null) {
+            data.dimension = hasher.dimension;
+            data.bigrams = hasher.bigrams;
+        } else {
+            data.terms = Arrays.asList(Arrays.copyOf(terms, size));
+        }
+        data.documentFrequency = Arrays.copyOf(documentFrequency, size);
+        data.documents = documents;
+        data.multiLabel = multiLabel;
+        data.documentLabels = new HashMap<>(documentLabels);
+        data.documentTerms = documentTerms != null ? new HashMap<>(documentTerms) : null;
+        data.categories = new HashMap<>();
+        for (Map.Entry<String, CategoryCounts> entry : categories.entrySet()) {
+            CategoryCounts counts = entry.getValue();
+            CategoryData category = new CategoryData();
+            category.documents = counts.documents;
+            category.termIds = counts.ids();
+            category.counts = new int[category.termIds.length];
+            for (int i = 0; i < category.termIds.length; i++) {
+                category.counts[i] = counts.get(category.termIds[i]);
+            }
+            data.categories.put(entry.getKey(), category);
+        }
+        return data;
+    }
+
+    static TermCounts fromData(Data data) {
+        TermCounts counts;
+        if (data.dimension > 0) {
+            counts = new TermCounts(new FeatureHasher(data.dimension, data.bigrams), data.multiLabel, true);
+            System.arraycopy(data.documentFrequency, 0, counts.documentFrequency, 0, data.dimension);
+        } else {
+            // Terms are interned in id order, so the stored ids stay valid
+            counts = new TermCounts(null, data.multiLabel, true);
+            for (int id = 0; id < data.terms.size(); id++) {
+                String term = data.terms.get(id);
+                int interned = counts.intern(term, term.hashCode());
+                counts.documentFrequency[interned] = data.documentFrequency[id];
+            }
+        }
+        counts.documents = data.documents;
+        if (data.documentLabels != null) {
+            counts.documentLabels.putAll(data.documentLabels);
+        } else if (data.documentCategories != null) {
+            // Written before documents could have several categories
+            data.documentCategories.forEach((id, category) -> counts.documentLabels.put(id, List.of(category)));
+        }
+        if (data.documentTerms != null) {
+            counts.documentTerms.putAll(data.documentTerms);
+        }
+        for (Map.Entry<String, CategoryData> entry : data.categories.entrySet()) {
+            CategoryData category = entry.getValue();
+            CategoryCounts target = counts.categories.computeIfAbsent(entry.getKey(), key -> new CategoryCounts());
+            target.documents = category.documents;
+            for (int i = 0; i < category.termIds.length; i++) {
+                target.increment(category.termIds[i], category.counts[i]);
+            }
+        }
+        return counts;
+    }
+
+    // Persistence form; category term counts are stored sparsely. Hashed counts have a
+    // dimension and no terms
+    static class Data {
+        public int dimension;
+        public boolean bigrams;
+        public List<String> terms;
+        public int[] documentFrequency;
+        public int documents;
+        public Map<String, CategoryData> categories;
+        public boolean multiLabel;
+        public Map<String, List<String>> documentLabels;
+        // Encoded (id, count) pairs per document; absent in files written by earlier versions
+        public Map<String, byte[]> documentTerms;
+        // Single category per document; only read, from files written by earlier versions
+        public Map<String, String> documentCategories;
+    }
+
+    static class CategoryData {
+        public int documents;
+        public int[] termIds;
+        public int[] counts;
+    }
+}
@@ -0,0 +1,299 @@
+package org.cacummaro.service.classification;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Immutable TF-IDF model: vocabulary, IDF per vocabulary id and one weight vector per category
+ *
+ * Every engine scores a category as {@code bias + lengthWeight * |x| + w . x} over the
+ * document's sparse features x, and differs only in how the weights were learned and how the
+ * score becomes a confidence:
+ * <ul>
+ *   <li>{@link Engine#CENTROID}: w is the category's unit-length TF-IDF centroid, x the
+ *       document's unit-length TF-IDF vector, and the confidence their cosine similarity</li>
+ *   <li>{@link Engine#NAIVE_BAYES}: multinomial Naive Bayes over term counts; w holds the
+ *       smoothed log term probabilities above the unseen-term floor, which is lengthWeight,
+ *       the bias is the log prior and the confidence the posterior</li>
+ *   <li>{@link Engine#LOGISTIC_REGRESSION}: one-vs-rest logistic regression over TF-IDF
+ *       vectors; the confidence is the sigmoid of the score, per category</li>
+ * </ul>
+ *
+ * A model built with a {@link FeatureHasher} has an empty vocabulary; its ids are hash
+ * buckets and the IDF array covers the whole hashing dimension.
+ *
+ * The weights are also indexed by feature id, so the dot products only visit the categories
+ * that share a feature with the document.
+ *
+ * The classifier publishes a new instance with a single volatile write, so a classify call
+ * always sees a vocabulary, IDF array and centroids that belong together. Each published
+ * model carries a version, recorded on the category assignments it produces.
+ */
+final class TfIdfModel {
+
+    enum Engine {
+        CENTROID("tfidf"),
+        NAIVE_BAYES("naive-bayes"),
+        LOGISTIC_REGRESSION("logistic-regression");
+
+        /** Name in configuration and in {@code CategoryAssignment.classifier} */
+        final String id;
+
+        Engine(String id) {
+            this.id = id;
+        }
+
+        static Engine fromConfig(String value) {
+            if ("centroid".equalsIgnoreCase(value)) {
+                return CENTROID;
+            }
+            for (Engine engine : values()) {
+                if (engine.id.equalsIgnoreCase(value)) {
+                    return engine;
+                }
+            }
+            throw new IllegalArgumentException("Unknown ML engine: " + value
+                    + " (expected centroid, naive-bayes or logistic-regression)");
+        }
+    }
+
+    static final TfIdfModel EMPTY = new TfIdfModel(0, Instant.EPOCH,
+            new Vocabulary(Collections.emptyList()), new double[0], Map.of());
+
+    final long version;
+    final Instant createdAt;
+    final Engine engine;
+    final Vocabulary vocabulary;
+    final double[] inverseDocumentFrequency;
+    final Map<String, SparseVector> categoryVectors;
+    // Null for vocabulary models
+    final FeatureHasher hasher;
+
+    // Per category, in categoryNames order; all zero for centroid models
+    private final double[] bias;
+    private final double[] lengthWeight;
+
+    // Inverted index: postings of feature id f are at [postingStart[f], postingStart[f + 1])
+    private final String[] categoryNames;
+    private final int[] postingStart;
+    private final int[] postingCategory;
+    private final float[] postingWeight;
+
+    TfIdfModel(long version, Instant createdAt, Vocabulary vocabulary, double[] inverseDocumentFrequency,
+               Map<String, SparseVector> categoryVectors) {
+        this(version, createdAt, vocabulary, inverseDocumentFrequency, categoryVectors, null);
+    }
+
+    TfIdfModel(long version, Instant createdAt, Vocabulary vocabulary, double[] inverseDocumentFrequency,
+               Map<String, SparseVector> categoryVectors, FeatureHasher hasher) {
+        this(version, createdAt, Engine.CENTROID, vocabulary, inverseDocumentFrequency, categoryVectors,
+                Map.of(), Map.of(), hasher);
+    }
+
+    /**
+     * @param categoryBias Bias per category; missing categories get 0
+     * @param categoryLengthWeight Weight of the document's total feature value per category;
+     *                             missing categories get 0
+     */
+    TfIdfModel(long version, Instant createdAt, Engine engine, Vocabulary vocabulary,
+               double[] inverseDocumentFrequency, Map<String, SparseVector> categoryVectors,
+               Map<String, Double> categoryBias, Map<String, Double> categoryLengthWeight, FeatureHasher hasher) {
+        this.version = version;
+        this.createdAt = createdAt;
+        this.engine = engine;
+        this.vocabulary = vocabulary;
+        this.inverseDocumentFrequency = inverseDocumentFrequency;
+        this.categoryVectors = Collections.unmodifiableMap(categoryVectors);
+        this.hasher = hasher;
+
+        int features = inverseDocumentFrequency.length;
+        categoryNames = categoryVectors.keySet().toArray(new String[0]);
+        bias = new double[categoryNames.length];
+        lengthWeight = new double[categoryNames.length];
+        for (int c = 0; c < categoryNames.length; c++) {
+            bias[c] = categoryBias.getOrDefault(categoryNames[c], 0.0);
+            lengthWeight[c] = categoryLengthWeight.getOrDefault(categoryNames[c], 0.0);
+        }
+        postingStart = new int[features + 1];
+        for (String category : categoryNames) {
+            for (int id : categoryVectors.get(category).ids) {
+                postingStart[id + 1]++;
+            }
+        }
+        for (int id = 0; id < features; id++) {
+            postingStart[id + 1] += postingStart[id];
+        }
+        postingCategory = new int[postingStart[features]];
+        postingWeight = new float[postingStart[features]];
+        int[] next = Arrays.copyOf(postingStart, features);
+        for (int c = 0; c < categoryNames.length; c++) {
+            SparseVector vector = categoryVectors.get(categoryNames[c]);
+            for (int i = 0; i < vector.size(); i++) {
+                int slot = next[vector.ids[i]]++;
+                postingCategory[slot] = c;
+                postingWeight[slot] = vector.weights[i];
+            }
+        }
+    }
+
+    /**
+     * Same model under another version; the arrays and index are shared, not copied
+     */
+    private TfIdfModel(TfIdfModel source, long version, Instant createdAt) {
+        this.version = version;
+        this.createdAt = createdAt;
+        this.engine = source.engine;
+        this.vocabulary = source.vocabulary;
+        this.inverseDocumentFrequency = source.inverseDocumentFrequency;
+        this.categoryVectors = source.categoryVectors;
+        this.hasher = source.hasher;
+        this.bias = source.bias;
+        this.lengthWeight = source.lengthWeight;
+        this.categoryNames = source.categoryNames;
+        this.postingStart = source.postingStart;
+        this.postingCategory = source.postingCategory;
+        this.postingWeight = source.postingWeight;
+    }
+
+    TfIdfModel withVersion(long version, Instant createdAt) {
+        return new TfIdfModel(this, version, createdAt);
+    }
+
+    double bias(String category) {
+        int c = Arrays.asList(categoryNames).indexOf(category);
+        return c >= 0 ? bias[c] : 0;
+    }
+
+    double lengthWeight(String category) {
+        int c = Arrays.asList(categoryNames).indexOf(category);
+        return c >= 0 ? lengthWeight[c] : 0;
+    }
+
+    /**
+     * Features of a text over this model's vocabulary: term counts for Naive Bayes, the
+     * unit-length TF-IDF vector otherwise
+     */
+    SparseVector vectorize(CharSequence text, Tokenizer tokenizer) {
+        if (hasher != null) {
+            HashedFeatures features = new HashedFeatures();
+            hasher.features(text, tokenizer, features);
+            return SparseVector.signedTfIdf(features.features, features.count, inverseDocumentFrequency);
+        }
+        // Vocabulary ids of the known tokens; SparseVector counts the term frequencies
+        TokenIds tokenIds = new TokenIds(vocabulary);
+        tokenizer.tokenize(text, tokenIds);
+        if (engine == Engine.NAIVE_BAYES) {
+            return SparseVector.termFrequencies(tokenIds.ids, tokenIds.count);
+        }
+        return SparseVector.tfIdf(tokenIds.ids, tokenIds.count, inverseDocumentFrequency);
+    }
+
+    /**
+     * Confidence per category for a document vector from {@link #vectorize}
+     *
+     * Centroid models leave out the categories sharing no feature with the document, whose
+     * similarity is 0; the other engines score every category.
+     */
+    Map<String, Double> score(SparseVector document) {
+        double[] scores = new double[categoryNames.length];
+        boolean[] touched = new boolean[categoryNames.length];
+        double length = 0;
+        for (int i = 0; i < document.size(); i++) {
+            int id = document.ids[i];
+            double weight = document.weights[i];
+            length += weight;
+            for (int p = postingStart[id], end = postingStart[id + 1]; p < end; p++) {
+                scores[postingCategory[p]] += weight * postingWeight[p];
+                touched[postingCategory[p]] = true;
+            }
+        }
+        Map<String, Double> result = new HashMap<>();
+        if (engine == Engine.CENTROID) {
+            for (int c = 0; c < categoryNames.length; c++) {
+                if (touched[c]) {
+                    result.put(categoryNames[c], scores[c]);
+                }
+            }
+            return result;
+        }
+
+        double max = Double.NEGATIVE_INFINITY;
+        for (int c = 0; c < categoryNames.length; c++) {
+            scores[c] += bias[c] + lengthWeight[c] * length;
+            max = Math.max(max, scores[c]);
+        }
+        if (engine == Engine.NAIVE_BAYES) {
+            // Posterior by softmax over the log joint probabilities, shifted to avoid underflow
+            double total = 0;
+            for (int c = 0; c < categoryNames.length; c++) {
+                scores[c] = Math.exp(scores[c] - max);
+                total += scores[c];
+            }
+            for (int c = 0; c < categoryNames.length; c++) {
+                result.put(categoryNames[c], scores[c] / total);
+            }
+        } else {
+            for (int c = 0; c < categoryNames.length; c++) {
+                result.put(categoryNames[c], 1 / (1 + Math.exp(-scores[c])));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Feature space for log messages, e.g. {@code 1000 vocabulary terms}
+     */
+    String describeFeatures() {
+        return engine.id + " over " + (hasher != null ? hasher.toString() : vocabulary.size() + " vocabulary terms");
+    }
+
+    /**
+     * Name of a feature id: its term, or {@code #bucket} for hashed models
+     */
+    String featureName(int id) {
+        return hasher != null ? "#" + id : vocabulary.term(id);
+    }
+
+    /**
+     * Collects hashed features packed as bucket and sign bit, for {@link SparseVector#signedTfIdf}
+     */
+    private static final class HashedFeatures implements FeatureHasher.FeatureSink {
+        private long[] features = new long[256];
+        private int count;
+
+        @Override
+        public void accept(int index, int sign) {
+            if (count == features.length) {
+                features = Arrays.copyOf(features, count * 2);
+            }
+            features[count++] = ((long) index << 1) | (sign < 0 ? 1 : 0);
+        }
+    }
+
+    /**
+     * Collects the vocabulary ids of in-vocabulary tokens; other tokens never become Strings
+     */
+    private static final class TokenIds implements Tokenizer.TokenSink {
+        private final Vocabulary vocabulary;
+        private int[] ids = new int[256];
+        private int count;
+
+        TokenIds(Vocabulary vocabulary) {
+            this.vocabulary = vocabulary;
+        }
+
+        @Override
+        public void accept(char[] token, int length, int hash) {
+            int id = vocabulary.id(token, length, hash);
+            if (id >= 0) {
+                if (count == ids.length) {
+                    ids = Arrays.copyOf(ids, count * 2);
+                }
+                ids[count++] = id;
+            }
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package org.cacummaro.service.classification;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Single-pass tokenizer for the TF-IDF classifier
+ *
+ * Matches lowercasing the text and splitting on {@code [\W_]+}: tokens are runs of ASCII
+ * letters and digits, at least three characters long and not stop words. Lowercasing is per
+ * character, so the only difference is U+0130, which becomes a plain {@code i}. Tokens are
+ * handed to the sink as a reused char buffer with their {@link String#hashCode()}, so callers
+ * can look them up without creating a String per token.
+ */
+final class Tokenizer {
+
+    private static final int MIN_TOKEN_LENGTH = 3;
+
+    @FunctionalInterface
+    interface TokenSink {
+        /**
+         * @param token Buffer holding the token; only valid during the call
+         * @param length Token length
+         * @param hash Same value as {@code new String(token, 0, length).hashCode()}
+         */
+        void accept(char[] token, int length, int hash);
+    }
+
+    private final PerfectHashSet stopWords;
+
+    Tokenizer(Collection<String> stopWords) {
+        this.stopWords = new PerfectHashSet(stopWords);
+    }
+
+    void tokenize(CharSequence text, TokenSink sink) {
+        if (text == null) {
+            return;
+        }
+        char[] token = new char[32];
+        int length = 0;
+        int hash = 0;
+        for (int i = 0, n = text.length(); i <= n; i++) {
+            char c = i < n ? Character.toLowerCase(text.charAt(i)) : ' ';
+            if (c >= 'a' && c <= 'z' || c >= '0' && c <= '9') {
+                if (length == token.length) {
+                    token = Arrays.copyOf(token, length * 2);
+                }
+                token[length++] = c;
+                hash = 31 * hash + c;
+            } else if (length > 0) {
+                if (length >= MIN_TOKEN_LENGTH && !stopWords.contains(token, length, hash)) {
+                    sink.accept(token, length, hash);
+                }
+                length = 0;
+                hash = 0;
+            }
+        }
+    }
+
+    static boolean matches(String term, char[] chars, int length) {
+        if (term.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (term.charAt(i) != chars[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Fixed string set whose multiplier is chosen at construction so every member lands in its
+     * own slot; a lookup is one multiply, one shift and at most one comparison.
+     */
+    private static final class PerfectHashSet {
+
+        private final String[] slots;
+        private final int multiplier;
+        private final int shift;
+
+        PerfectHashSet(Collection<String> members) {
+            int bits = 32 - Integer.numberOfLeadingZeros(Math.max(1, members.size() * 4));
+            while (true) {
+                for (int seed = 1; seed < 10000; seed++) {
+                    int candidate = seed * 0x9E3779B9 | 1;
+                    String[] table = new String[1 << bits];
+                    if (fill(table, members, candidate, 32 - bits)) {
+                        slots = table;
+                        multiplier = candidate;
+                        shift = 32 - bits;
+                        return;
+                    }
+                }
+                bits++;
+            }
+        }
+
+        private static boolean fill(String[] table, Collection<String> members, int multiplier, int shift) {
+            for (String member : members) {
+                int slot = (member.hashCode() * multiplier) >>> shift;
+                if (table[slot] != null && !table[slot].equals(member)) {
+                    return false;
+                }
+                table[slot] = member;
+            }
+            return true;
+        }
+
+        boolean contains(char[] chars, int length, int hash) {
+            String member = slots[(hash * multiplier) >>> shift];
+            return member != null && matches(member, chars, length);
+        }
+    }
+}
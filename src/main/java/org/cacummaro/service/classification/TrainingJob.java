@@ -0,0 +1,229 @@
+package org.cacummaro.service.classification;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Progress of one background training or evaluation run
+ *
+ * Counters are updated by the training workers and read by status requests, so every field
+ * is either atomic or volatile.
+ */
+public class TrainingJob {
+
+    public enum Type {
+        /** Train a new model on the repository and make it current */
+        TRAINING,
+        /** Train throwaway models on splits of the repository and report how they score */
+        EVALUATION
+    }
+
+    public enum Phase {
+        QUEUED,
+        /** Paging through documents and counting their terms */
+        COUNTING,
+        /** Building vocabulary, IDF and category vectors from the counts */
+        BUILDING,
+        /** Fitting logistic regression weights over the training documents */
+        FITTING,
+        /** Training and testing a model for each evaluation split */
+        EVALUATING,
+        COMPLETED,
+        FAILED,
+        CANCELLED
+    }
+
+    private final String id = UUID.randomUUID().toString();
+    private final Type type;
+    private final int maxDocuments;
+    private final Instant createdAt = Instant.now();
+
+    private volatile Phase phase = Phase.QUEUED;
+    private volatile Instant startedAt;
+    private volatile Instant finishedAt;
+    private volatile long totalDocuments;
+    private volatile boolean cancelRequested;
+    private volatile String errorMessage;
+    private volatile int documentsTrained;
+    private volatile Set<String> categories;
+    private volatile int folds;
+    private volatile Map<String, Object> report;
+
+    private final AtomicInteger scannedDocuments = new AtomicInteger();
+    private final AtomicInteger submittedDocuments = new AtomicInteger();
+    private final AtomicInteger processedDocuments = new AtomicInteger();
+    private final AtomicInteger completedFolds = new AtomicInteger();
+
+    public TrainingJob(int maxDocuments) {
+        this(Type.TRAINING, maxDocuments);
+    }
+
+    public TrainingJob(Type type, int maxDocuments) {
+        this.type = type;
+        this.maxDocuments = maxDocuments;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public int getMaxDocuments() {
+        return maxDocuments;
+    }
+
+    public Phase getPhase() {
+        return phase;
+    }
+
+    public boolean isFinished() {
+        return phase == Phase.COMPLETED || phase == Phase.FAILED || phase == Phase.CANCELLED;
+    }
+
+    public boolean isCancelRequested() {
+        return cancelRequested;
+    }
+
+    /**
+     * Ask the job to stop; the current model and statistics are left untouched
+     *
+     * @return false if the job has already finished
+     */
+    public boolean cancel() {
+        if (isFinished()) {
+            return false;
+        }
+        cancelRequested = true;
+        return true;
+    }
+
+    void startCounting(long totalDocuments) {
+        this.totalDocuments = totalDocuments;
+        this.startedAt = Instant.now();
+        this.phase = Phase.COUNTING;
+    }
+
+    void documentScanned() {
+        scannedDocuments.incrementAndGet();
+    }
+
+    void documentSubmitted() {
+        submittedDocuments.incrementAndGet();
+    }
+
+    void documentProcessed() {
+        processedDocuments.incrementAndGet();
+    }
+
+    void startBuilding() {
+        phase = Phase.BUILDING;
+    }
+
+    void startFitting() {
+        phase = Phase.FITTING;
+    }
+
+    void startEvaluating(int folds) {
+        this.folds = folds;
+        this.startedAt = Instant.now();
+        this.phase = Phase.EVALUATING;
+    }
+
+    void foldCompleted() {
+        completedFolds.incrementAndGet();
+    }
+
+    void complete(int documentsTrained, Set<String> categories) {
+        this.documentsTrained = documentsTrained;
+        this.categories = categories;
+        finish(Phase.COMPLETED);
+    }
+
+    void completeEvaluation(Map<String, Object> report) {
+        this.report = report;
+        finish(Phase.COMPLETED);
+    }
+
+    void fail(String errorMessage) {
+        this.errorMessage = errorMessage;
+        finish(Phase.FAILED);
+    }
+
+    void cancelled() {
+        finish(Phase.CANCELLED);
+    }
+
+    private void finish(Phase phase) {
+        this.finishedAt = Instant.now();
+        this.phase = phase;
+    }
+
+    public Map<String, Object> getStatus() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("id", id);
+        status.put("type", type);
+        status.put("phase", phase);
+        status.put("maxDocuments", maxDocuments);
+        status.put("createdAt", createdAt.toString());
+        if (startedAt != null) {
+            status.put("startedAt", startedAt.toString());
+        }
+        status.put("totalDocuments", totalDocuments);
+        status.put("scannedDocuments", scannedDocuments.get());
+        status.put("submittedDocuments", submittedDocuments.get());
+        status.put("processedDocuments", processedDocuments.get());
+        if (type == Type.EVALUATION && folds > 0) {
+            status.put("folds", folds);
+            status.put("completedFolds", completedFolds.get());
+        }
+        if (phase == Phase.COUNTING) {
+            putProgress(status, progress());
+        } else if (phase == Phase.EVALUATING) {
+            putProgress(status, (double) completedFolds.get() / folds);
+        }
+        if (cancelRequested) {
+            status.put("cancelRequested", true);
+        }
+        if (finishedAt != null) {
+            status.put("finishedAt", finishedAt.toString());
+            status.put("durationMs", Duration.between(startedAt != null ? startedAt : createdAt, finishedAt).toMillis());
+        }
+        if (phase == Phase.COMPLETED && type == Type.TRAINING) {
+            status.put("documentsTrained", documentsTrained);
+            status.put("categories", categories);
+        }
+        if (phase == Phase.COMPLETED && report != null) {
+            status.put("report", report);
+        }
+        if (errorMessage != null) {
+            status.put("error", errorMessage);
+        }
+        return status;
+    }
+
+    private void putProgress(Map<String, Object> status, double progress) {
+        status.put("progress", progress);
+        if (progress > 0) {
+            long elapsedMs = Duration.between(startedAt, Instant.now()).toMillis();
+            status.put("etaSeconds", Math.round(elapsedMs * (1 - progress) / progress / 1000));
+        }
+    }
+
+    /**
+     * Share of the counting phase done: documents scanned out of all documents, or processed
+     * out of the document limit when the limit is reached first
+     */
+    private double progress() {
+        double scanned = totalDocuments > 0 ? (double) scannedDocuments.get() / totalDocuments : 0;
+        double limited = maxDocuments > 0 ? (double) processedDocuments.get() / maxDocuments : 0;
+        return Math.min(1.0, Math.max(scanned, limited));
+    }
+}
@@ -0,0 +1,151 @@
+package org.cacummaro.service.classification;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.util.Optional;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs model training and evaluation in the background, one job at a time
+ *
+ * Only the running job and the last finished one are kept.
+ */
+@Service
+public class TrainingJobService {
+
+    private static final Logger logger = LoggerFactory.getLogger(TrainingJobService.class);
+
+    private final MachineLearningClassifier mlClassifier;
+    private final ExecutorService executor;
+
+    private TrainingJob currentJob;
+    private TrainingJob lastJob;
+
+    @Autowired
+    public TrainingJobService(MachineLearningClassifier mlClassifier) {
+        this.mlClassifier = mlClassifier;
+        this.executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ml-training");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void cleanup() {
+        TrainingJob running = getCurrentJob().orElse(null);
+        if (running != null) {
+            running.cancel();
+        }
+        executor.shutdownNow();
+    }
+
+    /**
+     * Start training on the categorized documents in the repository
+     *
+     * @param maxDocuments Maximum number of categorized documents to train on; 0 for all
+     * @return The queued job
+     * @throws IllegalStateException if a training job is already running
+     */
+    public synchronized TrainingJob start(int maxDocuments) {
+        TrainingJob job = submit(new TrainingJob(maxDocuments), running -> {
+            int documentsTrained = mlClassifier.trainFromRepository(running);
+            if (documentsTrained == 0) {
+                running.fail("No categorized documents found for training");
+            } else {
+                running.complete(documentsTrained, mlClassifier.getCategories());
+            }
+        });
+        logger.info("Queued ML training job {} (max documents: {})", job.getId(), maxDocuments);
+        return job;
+    }
+
+    /**
+     * Start evaluating the current ML settings on held-out documents; the report is part of
+     * the job status once it completes
+     *
+     * @param folds Number of stratified folds; 1 for a single holdout split
+     * @param testFraction Share of each category held out when folds is 1
+     * @param maxDocuments Maximum number of categorized documents to use; 0 for all
+     * @return The queued job
+     * @throws IllegalArgumentException if the split parameters are out of range
+     * @throws IllegalStateException if a job is already running
+     */
+    public synchronized TrainingJob startEvaluation(int folds, double testFraction, int maxDocuments) {
+        mlClassifier.checkEvaluationParameters(folds, testFraction);
+        TrainingJob job = submit(new TrainingJob(TrainingJob.Type.EVALUATION, maxDocuments),
+                running -> running.completeEvaluation(mlClassifier.evaluate(running, folds, testFraction)));
+        logger.info("Queued ML evaluation job {} ({} folds, max documents: {})", job.getId(), folds, maxDocuments);
+        return job;
+    }
+
+    private TrainingJob submit(TrainingJob job, JobTask task) {
+        if (currentJob != null) {
+            throw new IllegalStateException("Training job " + currentJob.getId() + " is already running");
+        }
+        currentJob = job;
+        executor.execute(() -> run(job, task));
+        return job;
+    }
+
+    /**
+     * Request cancellation of the running job
+     *
+     * @return The job, if it is the running one
+     */
+    public synchronized Optional<TrainingJob> cancel(String jobId) {
+        if (currentJob == null || !currentJob.getId().equals(jobId)) {
+            return Optional.empty();
+        }
+        currentJob.cancel();
+        logger.info("Cancellation requested for ML training job {}", jobId);
+        return Optional.of(currentJob);
+    }
+
+    public synchronized Optional<TrainingJob> getJob(String jobId) {
+        if (currentJob != null && currentJob.getId().equals(jobId)) {
+            return Optional.of(currentJob);
+        }
+        if (lastJob != null && lastJob.getId().equals(jobId)) {
+            return Optional.of(lastJob);
+        }
+        return Optional.empty();
+    }
+
+    public synchronized Optional<TrainingJob> getCurrentJob() {
+        return Optional.ofNullable(currentJob);
+    }
+
+    public synchronized Optional<TrainingJob> getLastJob() {
+        return Optional.ofNullable(lastJob);
+    }
+
+    private void run(TrainingJob job, JobTask task) {
+        String kind = job.getType() == TrainingJob.Type.EVALUATION ? "evaluation" : "training";
+        try {
+            task.run(job);
+        } catch (CancellationException e) {
+            job.cancelled();
+            logger.info("ML {} job {} cancelled", kind, job.getId());
+        } catch (Exception e) {
+            job.fail(e.getMessage());
+            logger.error("ML {} job {} failed: {}", kind, job.getId(), e.getMessage(), e);
+        } finally {
+            synchronized (this) {
+                lastJob = job;
+                currentJob = null;
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface JobTask {
+        void run(TrainingJob job) throws Exception;
+    }
+}
@@ -0,0 +1,78 @@
+package org.cacummaro.service.classification;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Immutable term-to-id table for the TF-IDF model
+ *
+ * Ids are dense, assigned in insertion order, and index the model's IDF and vector arrays.
+ * Lookups use open addressing over parallel arrays, so no boxed Integer or map entry is
+ * touched per token.
+ */
+final class Vocabulary {
+
+    private final String[] terms;
+    private final String[] slots;
+    private final int[] slotIds;
+    private final int mask;
+
+    Vocabulary(Collection<String> terms) {
+        this.terms = terms.toArray(new String[0]);
+        int capacity = Integer.highestOneBit(Math.max(4, this.terms.length * 2 - 1)) << 1;
+        this.slots = new String[capacity];
+        this.slotIds = new int[capacity];
+        this.mask = capacity - 1;
+        for (int id = 0; id < this.terms.length; id++) {
+            int slot = this.terms[id].hashCode() & mask;
+            while (slots[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = this.terms[id];
+            slotIds[slot] = id;
+        }
+    }
+
+    /**
+     * @return Id of the term, or -1 if it is not in the vocabulary
+     */
+    int id(String term) {
+        int slot = term.hashCode() & mask;
+        for (String candidate = slots[slot]; candidate != null; candidate = slots[slot]) {
+            if (candidate.equals(term)) {
+                return slotIds[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Look up a token held in a char buffer without creating a String
+     *
+     * @param hash {@link String#hashCode()} of the token
+     * @return Id of the term, or -1 if it is not in the vocabulary
+     */
+    int id(char[] chars, int length, int hash) {
+        int slot = hash & mask;
+        for (String candidate = slots[slot]; candidate != null; candidate = slots[slot]) {
+            if (Tokenizer.matches(candidate, chars, length)) {
+                return slotIds[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    String term(int id) {
+        return terms[id];
+    }
+
+    int size() {
+        return terms.length;
+    }
+
+    Collection<String> terms() {
+        return Arrays.asList(terms);
+    }
+}
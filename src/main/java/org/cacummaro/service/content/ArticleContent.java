@@ -0,0 +1,34 @@
+package org.cacummaro.service.content;
+
+import java.util.List;
+
+/**
+ * Main article text of a web page with its headings and detected language.
+ */
+public class ArticleContent {
+
+    private final String text;
+    private final List<String> headings;
+    private final String language;
+
+    public ArticleContent(String text, List<String> headings, String language) {
+        this.text = text;
+        this.headings = headings;
+        this.language = language;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public List<String> getHeadings() {
+        return headings;
+    }
+
+    /**
+     * @return ISO 639-1 code such as "en", or null if it could not be determined
+     */
+    public String getLanguage() {
+        return language;
+    }
+}
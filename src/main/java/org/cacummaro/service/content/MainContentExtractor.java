@@ -0,0 +1,247 @@
+package org.cacummaro.service.content;
+
+import org.jsoup.nodes.Element;
+import org.jsoup.select.Elements;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Readability-style extraction of the main article from an HTML page
+ *
+ * Boilerplate (scripts, navigation, cookie banners, footers, share widgets) is removed first.
+ * Each remaining paragraph then scores its parent and grandparent by length and commas,
+ * damped by link density, and the best-scoring container plus its strong siblings is taken
+ * as the article.
+ */
+@Service
+public class MainContentExtractor {
+
+    private static final String BOILERPLATE_TAGS =
+            "script, style, noscript, template, iframe, svg, canvas, form, button, select, input, "
+            + "nav, header, footer, aside, menu, dialog";
+    private static final Pattern NEGATIVE = Pattern.compile(
+            "banner|breadcrumb|combx|comment|community|consent|cookie|disqus|extra|foot|gdpr|header|"
+            + "legends|menu|modal|nav|newsletter|popup|promo|related|remark|rss|share|shoutbox|sidebar|"
+            + "skyscraper|social|sponsor|subscribe|tags|tool|widget|advert|\\bad-|\\bads\\b",
+            Pattern.CASE_INSENSITIVE);
+    private static final Pattern POSITIVE = Pattern.compile(
+            "article|body|content|entry|hentry|h-entry|main|page|post|story|text|blog",
+            Pattern.CASE_INSENSITIVE);
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    private static final String PARAGRAPH_TAGS = "p, pre, blockquote, li, td, h2, h3, h4";
+    private static final int MIN_PARAGRAPH_LENGTH = 25;
+    private static final int MAX_HEADINGS = 30;
+
+    // The most frequent short function words; enough to tell common languages apart
+    private static final Map<String, Set<String>> STOP_WORDS = new LinkedHashMap<>();
+
+    static {
+        STOP_WORDS.put("en", words("the and of to in is that for it with as was on are be this by not or"));
+        STOP_WORDS.put("de", words("der die und das ist nicht mit den ein eine zu von auf sich des auch im dem"));
+        STOP_WORDS.put("fr", words("le la les et des est une un du que pour dans qui pas sur au avec sont"));
+        STOP_WORDS.put("es", words("el la los las y de que en un una es por con para del se no al"));
+        STOP_WORDS.put("it", words("il la di che e un una per non sono con del della gli le nel da"));
+        STOP_WORDS.put("nl", words("de het een en van is dat op te niet zijn met voor als ook bij er"));
+        STOP_WORDS.put("pt", words("o a os as e de que em um uma para com não do da se por mais"));
+    }
+
+    /**
+     * Extract the main content of a parsed page
+     *
+     * @param page Page parsed by Jsoup; it is not modified
+     * @return Article text with paragraphs separated by blank lines, headings and language
+     */
+    public ArticleContent extract(org.jsoup.nodes.Document page) {
+        org.jsoup.nodes.Document html = page.clone();
+        String declaredLanguage = declaredLanguage(html);
+        // The article's h1 often sits in a <header> that the cleanup below removes
+        Elements titleHeadings = html.select("h1").clone();
+
+        html.select(BOILERPLATE_TAGS).remove();
+        for (Element element : new ArrayList<>(html.body().getAllElements())) {
+            if (element != html.body() && element.parent() != null && isUnlikelyCandidate(element)) {
+                element.remove();
+            }
+        }
+
+        Element article = topCandidate(html.body());
+        List<String> paragraphs = new ArrayList<>();
+        for (Element paragraph : article.select(PARAGRAPH_TAGS)) {
+            if (hasParagraphAncestor(paragraph, article)) {
+                // Its text is already part of the enclosing paragraph-level element
+                continue;
+            }
+            String text = normalize(paragraph.text());
+            if (text.length() >= MIN_PARAGRAPH_LENGTH || paragraph.is("h2, h3, h4") && !text.isEmpty()) {
+                paragraphs.add(text);
+            }
+        }
+        if (paragraphs.isEmpty()) {
+            paragraphs.add(normalize(article.text()));
+        }
+        String text = String.join("\n\n", paragraphs);
+
+        List<String> headings = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        Elements headingElements = new Elements(titleHeadings);
+        headingElements.addAll(html.select("h2, h3"));
+        for (Element heading : headingElements) {
+            String headingText = normalize(heading.text());
+            if (!headingText.isEmpty() && seen.add(headingText) && headings.size() < MAX_HEADINGS) {
+                headings.add(headingText);
+            }
+        }
+
+        String language = declaredLanguage != null ? declaredLanguage : detectLanguage(text);
+        return new ArticleContent(text, headings, language);
+    }
+
+    private Element topCandidate(Element body) {
+        Map<Element, Double> scores = new IdentityHashMap<>();
+        for (Element paragraph : body.select("p, pre, td")) {
+            String text = paragraph.text();
+            if (text.length() < MIN_PARAGRAPH_LENGTH) {
+                continue;
+            }
+            double score = 1 + text.split(",").length + Math.min(3, text.length() / 100);
+
+            Element parent = paragraph.parent();
+            if (parent == null) {
+                continue;
+            }
+            scores.merge(parent, score, Double::sum);
+            Element grandparent = parent.parent();
+            if (grandparent != null) {
+                scores.merge(grandparent, score / 2, Double::sum);
+            }
+        }
+
+        Element best = null;
+        double bestScore = 0;
+        for (Map.Entry<Element, Double> entry : scores.entrySet()) {
+            Element candidate = entry.getKey();
+            double score = (entry.getValue() + classWeight(candidate)) * (1 - linkDensity(candidate));
+            entry.setValue(score);
+            if (best == null || score > bestScore) {
+                best = candidate;
+                bestScore = score;
+            }
+        }
+        if (best == null || best.parent() == null) {
+            return best != null ? best : body;
+        }
+
+        // Articles are often split over sibling containers (text, figure, more text)
+        Element merged = new Element("div");
+        double threshold = Math.max(10, bestScore * 0.2);
+        for (Element sibling : best.parent().children()) {
+            Double siblingScore = scores.get(sibling);
+            boolean include = sibling == best
+                    || siblingScore != null && siblingScore >= threshold
+                    || sibling.is("p") && sibling.text().length() > 80 && linkDensity(sibling) < 0.25;
+            if (include) {
+                merged.appendChild(sibling.clone());
+            }
+        }
+        return merged;
+    }
+
+    private static boolean hasParagraphAncestor(Element element, Element root) {
+        for (Element parent = element.parent(); parent != null && parent != root; parent = parent.parent()) {
+            if (parent.is(PARAGRAPH_TAGS)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isUnlikelyCandidate(Element element) {
+        if (element.is("body, article, main")) {
+            return false;
+        }
+        String role = element.attr("role");
+        if ("navigation".equals(role) || "banner".equals(role) || "contentinfo".equals(role)
+                || "complementary".equals(role) || "dialog".equals(role)
+                || "true".equals(element.attr("aria-hidden")) || element.hasAttr("hidden")) {
+            return true;
+        }
+        String classAndId = element.className() + " " + element.id();
+        return NEGATIVE.matcher(classAndId).find() && !POSITIVE.matcher(classAndId).find();
+    }
+
+    private static double classWeight(Element element) {
+        String classAndId = element.className() + " " + element.id();
+        double weight = 0;
+        if (NEGATIVE.matcher(classAndId).find()) {
+            weight -= 25;
+        }
+        if (POSITIVE.matcher(classAndId).find() || element.is("article, main")) {
+            weight += 25;
+        }
+        return weight;
+    }
+
+    private static double linkDensity(Element element) {
+        int textLength = element.text().length();
+        if (textLength == 0) {
+            return 0;
+        }
+        int linkLength = 0;
+        for (Element link : element.select("a")) {
+            linkLength += link.text().length();
+        }
+        return Math.min(1.0, (double) linkLength / textLength);
+    }
+
+    private static String declaredLanguage(org.jsoup.nodes.Document html) {
+        String[] declared = {
+                html.select("html").attr("lang"),
+                html.select("meta[http-equiv=content-language]").attr("content"),
+                html.select("meta[property=og:locale]").attr("content")
+        };
+        for (String value : declared) {
+            if (value != null && value.length() >= 2 && Character.isLetter(value.charAt(0))) {
+                return value.substring(0, 2).toLowerCase(Locale.ROOT);
+            }
+        }
+        return null;
+    }
+
+    static String detectLanguage(String text) {
+        Map<String, Integer> hits = new LinkedHashMap<>();
+        int words = 0;
+        for (String word : WHITESPACE.split(text.toLowerCase(Locale.ROOT))) {
+            if (++words > 2000) {
+                break;
+            }
+            for (Map.Entry<String, Set<String>> language : STOP_WORDS.entrySet()) {
+                if (language.getValue().contains(word)) {
+                    hits.merge(language.getKey(), 1, Integer::sum);
+                }
+            }
+        }
+        return hits.entrySet().stream()
+                .filter(entry -> entry.getValue() >= 5)
+                .max(Map.Entry.comparingByValue())
+                .map(Map.Entry::getKey)
+                .orElse(null);
+    }
+
+    private static String normalize(String text) {
+        return WHITESPACE.matcher(text).replaceAll(" ").trim();
+    }
+
+    private static Set<String> words(String words) {
+        return new HashSet<>(Arrays.asList(words.split(" ")));
+    }
+}
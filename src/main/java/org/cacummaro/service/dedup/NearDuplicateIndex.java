@@ -0,0 +1,267 @@
+package org.cacummaro.service.dedup;
+
+import org.cacummaro.domain.Document;
+import org.cacummaro.repository.CursorPage;
+import org.cacummaro.repository.DocumentRepository;
+import org.cacummaro.service.changes.DocumentChangeListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Banded index over document SimHash fingerprints for near-duplicate lookups at ingest
+ *
+ * The 64 bits are split into {@code max-distance + 1} bands. Two fingerprints within that
+ * Hamming distance must agree exactly on at least one band, so only documents sharing a band
+ * value are compared instead of the whole corpus.
+ */
+@Service
+public class NearDuplicateIndex implements DocumentChangeListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(NearDuplicateIndex.class);
+    private static final int LOAD_PAGE_SIZE = 500;
+
+    public enum Action {
+        /** Keep the copy, mark it with duplicateOf and reuse the original's categories */
+        FLAG,
+        /** Drop the copy and answer the ingest with the original document */
+        COLLAPSE
+    }
+
+    @Value("${cacummaro.dedup.enabled:true}")
+    private boolean enabled;
+
+    @Value("${cacummaro.dedup.max-distance:3}")
+    private int maxDistance;
+
+    @Value("${cacummaro.dedup.action:flag}")
+    private String action;
+
+    private final DocumentRepository documentRepository;
+
+    private final Map<String, Long> fingerprints = new HashMap<>();
+    private final List<Map<Integer, List<String>>> bands = new ArrayList<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private int[] bandOffsets;
+    private Action resolvedAction;
+
+    // Deletions seen while the initial load runs, so the load cannot resurrect them
+    private Set<String> deletedDuringLoad = new HashSet<>();
+
+    @Autowired
+    public NearDuplicateIndex(DocumentRepository documentRepository) {
+        this.documentRepository = documentRepository;
+    }
+
+    @PostConstruct
+    public void initialize() {
+        if (maxDistance < 1 || maxDistance > 15) {
+            throw new IllegalStateException("cacummaro.dedup.max-distance must be between 1 and 15");
+        }
+        resolvedAction = Action.valueOf(action.trim().toUpperCase(Locale.ROOT));
+
+        int bandCount = maxDistance + 1;
+        bandOffsets = new int[bandCount + 1];
+        for (int band = 0; band <= bandCount; band++) {
+            bandOffsets[band] = band * 64 / bandCount;
+        }
+        for (int band = 0; band < bandCount; band++) {
+            bands.add(new HashMap<>());
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void load() {
+        if (!enabled) {
+            logger.info("Near-duplicate detection is disabled. Set cacummaro.dedup.enabled=true to enable");
+            return;
+        }
+
+        Thread loader = new Thread(() -> {
+            try {
+                String cursor = null;
+                do {
+                    CursorPage<Document> page = documentRepository.findAll(cursor, LOAD_PAGE_SIZE);
+                    lock.writeLock().lock();
+                    try {
+                        for (Document document : page.getContent()) {
+                            if (!deletedDuringLoad.contains(document.getId())) {
+                                putDocument(document);
+                            }
+                        }
+                    } finally {
+                        lock.writeLock().unlock();
+                    }
+                    cursor = page.getNextCursor();
+                } while (cursor != null);
+
+                lock.writeLock().lock();
+                try {
+                    deletedDuringLoad = null;
+                    logger.info("Loaded {} SimHash fingerprints for near-duplicate detection", fingerprints.size());
+                } finally {
+                    lock.writeLock().unlock();
+                }
+            } catch (Exception e) {
+                logger.error("Failed to load SimHash fingerprints: {}", e.getMessage(), e);
+            }
+        }, "near-duplicate-loader");
+        loader.setDaemon(true);
+        loader.start();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public Action getAction() {
+        return resolvedAction;
+    }
+
+    /**
+     * Find the closest indexed document within the configured Hamming distance
+     *
+     * @param fingerprint SimHash of the new document's text
+     * @param excludeId Id of the new document itself
+     * @return Id of the closest near-duplicate, if any
+     */
+    public Optional<String> findNearDuplicate(long fingerprint, String excludeId) {
+        if (!enabled) {
+            return Optional.empty();
+        }
+
+        String closest = null;
+        int closestDistance = Integer.MAX_VALUE;
+        lock.readLock().lock();
+        try {
+            for (int band = 0; band < bands.size(); band++) {
+                List<String> candidates = bands.get(band).get(bandValue(fingerprint, band));
+                if (candidates == null) {
+                    continue;
+                }
+                for (String candidate : candidates) {
+                    if (candidate.equals(excludeId)) {
+                        continue;
+                    }
+                    int distance = SimHash.distance(fingerprint, fingerprints.get(candidate));
+                    if (distance <= maxDistance && (distance < closestDistance
+                            || distance == closestDistance && candidate.compareTo(closest) < 0)) {
+                        closest = candidate;
+                        closestDistance = distance;
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return Optional.ofNullable(closest);
+    }
+
+    /**
+     * Register a fingerprint straight away, so a copy ingested moments later is caught
+     * before this document comes back through the _changes feed
+     */
+    public void add(String documentId, long fingerprint) {
+        if (!enabled) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            put(documentId, fingerprint);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void onDocumentChanged(Document document) {
+        if (!enabled) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            putDocument(document);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void onDocumentDeleted(String documentId) {
+        if (!enabled) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            remove(documentId);
+            if (deletedDuringLoad != null) {
+                deletedDuringLoad.add(documentId);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public String getListenerName() {
+        return "near-duplicates";
+    }
+
+    private void putDocument(Document document) {
+        if (document.getSimHash() == null) {
+            return;
+        }
+        try {
+            put(document.getId(), SimHash.fromHex(document.getSimHash()));
+        } catch (NumberFormatException e) {
+            logger.warn("Ignoring malformed simHash on document {}", document.getId());
+        }
+    }
+
+    private void put(String documentId, long fingerprint) {
+        Long existing = fingerprints.get(documentId);
+        if (existing != null && existing == fingerprint) {
+            return;
+        }
+        remove(documentId);
+        fingerprints.put(documentId, fingerprint);
+        for (int band = 0; band < bands.size(); band++) {
+            bands.get(band).computeIfAbsent(bandValue(fingerprint, band), key -> new ArrayList<>(2)).add(documentId);
+        }
+    }
+
+    private void remove(String documentId) {
+        Long fingerprint = fingerprints.remove(documentId);
+        if (fingerprint == null) {
+            return;
+        }
+        for (int band = 0; band < bands.size(); band++) {
+            int key = bandValue(fingerprint, band);
+            List<String> bucket = bands.get(band).get(key);
+            if (bucket != null && bucket.remove(documentId) && bucket.isEmpty()) {
+                bands.get(band).remove(key);
+            }
+        }
+    }
+
+    private int bandValue(long fingerprint, int band) {
+        int width = bandOffsets[band + 1] - bandOffsets[band];
+        return (int) ((fingerprint >>> bandOffsets[band]) & ((1L << width) - 1));
+    }
+}
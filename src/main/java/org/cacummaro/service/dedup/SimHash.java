@@ -0,0 +1,99 @@
+package org.cacummaro.service.dedup;
+
+import java.util.Locale;
+import java.util.OptionalLong;
+
+/**
+ * 64-bit SimHash fingerprints over word shingles
+ *
+ * Texts that differ only in small parts (navigation, bylines, footers) end up a few bits
+ * apart, so near-duplicates can be found by Hamming distance instead of exact hashes.
+ */
+public final class SimHash {
+
+    private static final int SHINGLE_SIZE = 3;
+    // Below this, a handful of votes leaves unrelated short texts only a few bits apart
+    private static final int MIN_SHINGLES = 3;
+
+    private SimHash() {
+    }
+
+    /**
+     * Fingerprint the text; each distinct 3-word shingle votes on every bit with its hash
+     *
+     * @param text Extracted document text
+     * @return Fingerprint, or empty if the text has fewer than 3 shingles to vote with
+     */
+    public static OptionalLong of(String text) {
+        if (text == null) {
+            return OptionalLong.empty();
+        }
+
+        int[] votes = new int[64];
+        long[] window = new long[SHINGLE_SIZE];
+        int words = 0;
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            // Hash the next word in place, lower-cased, without allocating substrings
+            while (i < length && !Character.isLetterOrDigit(text.charAt(i))) {
+                i++;
+            }
+            if (i >= length) {
+                break;
+            }
+            long wordHash = 0xcbf29ce484222325L;
+            while (i < length && Character.isLetterOrDigit(text.charAt(i))) {
+                wordHash ^= Character.toLowerCase(text.charAt(i));
+                wordHash *= 0x100000001b3L;
+                i++;
+            }
+
+            window[words % SHINGLE_SIZE] = wordHash;
+            words++;
+            if (words >= SHINGLE_SIZE) {
+                long shingle = 0;
+                for (int k = 0; k < SHINGLE_SIZE; k++) {
+                    shingle = shingle * 31 + window[(words + k) % SHINGLE_SIZE];
+                }
+                vote(votes, mix(shingle));
+            }
+        }
+        if (words - SHINGLE_SIZE + 1 < MIN_SHINGLES) {
+            return OptionalLong.empty();
+        }
+
+        long fingerprint = 0;
+        for (int bit = 0; bit < 64; bit++) {
+            if (votes[bit] > 0) {
+                fingerprint |= 1L << bit;
+            }
+        }
+        return OptionalLong.of(fingerprint);
+    }
+
+    public static int distance(long a, long b) {
+        return Long.bitCount(a ^ b);
+    }
+
+    public static String toHex(long fingerprint) {
+        return String.format(Locale.ROOT, "%016x", fingerprint);
+    }
+
+    public static long fromHex(String hex) {
+        return Long.parseUnsignedLong(hex, 16);
+    }
+
+    private static void vote(int[] votes, long hash) {
+        for (int bit = 0; bit < 64; bit++) {
+            votes[bit] += ((hash >>> bit) & 1L) != 0 ? 1 : -1;
+        }
+    }
+
+    private static long mix(long z) {
+        // SplitMix64 finaliser spreads the shingle hash over all bits
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,161 @@
+package org.cacummaro.service.pdf;
+
+import org.cacummaro.domain.Document;
+import org.cacummaro.repository.CursorPage;
+import org.cacummaro.repository.DocumentRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Caches the text extracted from a document as a gzip attachment next to the PDF
+ *
+ * Text is extracted once during ingest; classification, training, search indexing and MCP
+ * read the cached copy instead of downloading and re-parsing the PDF. Documents ingested
+ * before the cache existed fall back to extraction until {@link #backfill()} caches them.
+ * Reads never write, so bulk passes over the corpus do not advance document revisions.
+ */
+@Service
+public class ExtractedTextService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ExtractedTextService.class);
+
+    public static final String TEXT_ATTACHMENT = "extracted-text.txt.gz";
+    private static final String TEXT_CONTENT_TYPE = "application/gzip";
+    private static final int BACKFILL_PAGE_SIZE = 200;
+
+    private final DocumentRepository documentRepository;
+    private final PdfTextExtractor textExtractor;
+
+    @Autowired
+    public ExtractedTextService(DocumentRepository documentRepository, PdfTextExtractor textExtractor) {
+        this.documentRepository = documentRepository;
+        this.textExtractor = textExtractor;
+    }
+
+    /**
+     * Extract text from the PDF and store it on the document
+     *
+     * @param document Stored document; its revision is advanced to the one with the attachment
+     * @param pdfData PDF binary data
+     * @return Extracted text
+     * @throws IOException if the PDF cannot be read
+     */
+    public String extractAndStore(Document document, byte[] pdfData) throws IOException {
+        PdfText extracted = textExtractor.extract(pdfData);
+        if (extracted.isTruncated()) {
+            logger.info("Text of document {} cut off at {} ({} of {} pages read)", document.getId(),
+                        extracted.getCutoff(), extracted.getPagesRead(), extracted.getPageCount());
+        }
+        store(document, extracted.getText());
+        return extracted.getText();
+    }
+
+    /**
+     * Store text obtained elsewhere (e.g. from the page HTML) as the document's cached text
+     *
+     * @param document Stored document; its revision is advanced to the one with the attachment
+     * @param text Text to cache
+     * @throws IOException if the text cannot be compressed
+     */
+    public void storeText(Document document, String text) throws IOException {
+        store(document, text);
+    }
+
+    /**
+     * Cached text of the document, or text extracted from its PDF when nothing is cached yet.
+     * Never writes to CouchDB, so it is safe to call on a document that is about to be saved.
+     *
+     * @param document Document with its attachment stubs
+     * @return Text, or null if the document has no PDF
+     * @throws IOException if neither the cache nor the PDF can be read
+     */
+    public String getText(Document document) throws IOException {
+        if (hasCachedText(document)) {
+            try {
+                return readCachedText(document.getId());
+            } catch (IOException | RuntimeException e) {
+                logger.warn("Cached text of document {} is unreadable, extracting from PDF: {}",
+                            document.getId(), e.getMessage());
+            }
+        }
+        if (document.getPdfAttachmentName() == null) {
+            return null;
+        }
+        // Streamed so a large PDF is never held in the heap as a whole
+        try (InputStream pdfStream = documentRepository.getAttachmentStream(
+                document.getId(), document.getPdfAttachmentName())) {
+            return textExtractor.extract(pdfStream).getText();
+        }
+    }
+
+    /**
+     * One-off pass caching the text of every document that has a PDF but no cached text
+     *
+     * Each cached document gets a new revision, which the changes feed delivers to every
+     * listener, so this is an explicit admin job rather than a side effect of reading.
+     *
+     * @return Number of documents whose text was cached
+     */
+    public synchronized long backfill() {
+        long cached = 0;
+        long failed = 0;
+        String cursor = null;
+        do {
+            CursorPage<Document> page = documentRepository.findAll(cursor, BACKFILL_PAGE_SIZE);
+            for (Document document : page.getContent()) {
+                if (hasCachedText(document) || document.getPdfAttachmentName() == null) {
+                    continue;
+                }
+                try {
+                    String text = getText(document);
+                    if (text != null) {
+                        store(document, text);
+                        cached++;
+                    }
+                } catch (IOException | RuntimeException e) {
+                    // Usually a revision conflict with a concurrent update; a later run retries
+                    failed++;
+                    logger.warn("Could not cache text of document {}: {}", document.getId(), e.getMessage());
+                }
+            }
+            cursor = page.getNextCursor();
+        } while (cursor != null);
+
+        logger.info("Cached text of {} documents ({} failed)", cached, failed);
+        return cached;
+    }
+
+    public boolean hasCachedText(Document document) {
+        return document.getAttachments() != null && document.getAttachments().containsKey(TEXT_ATTACHMENT);
+    }
+
+    private void store(Document document, String text) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(Math.max(256, text.length() / 3));
+        try (OutputStream gzip = new GZIPOutputStream(buffer)) {
+            gzip.write(text.getBytes(StandardCharsets.UTF_8));
+        }
+        byte[] compressed = buffer.toByteArray();
+
+        String revision = documentRepository.saveAttachment(
+                document.getId(), document.getRevision(), TEXT_ATTACHMENT, compressed, TEXT_CONTENT_TYPE);
+        document.setRevision(revision);
+        logger.debug("Cached {} characters of text for document {} ({} bytes compressed)",
+                    text.length(), document.getId(), compressed.length);
+    }
+
+    private String readCachedText(String documentId) throws IOException {
+        try (InputStream gzip = new GZIPInputStream(documentRepository.getAttachmentStream(documentId, TEXT_ATTACHMENT))) {
+            return new String(gzip.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+}
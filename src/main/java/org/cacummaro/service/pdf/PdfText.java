@@ -0,0 +1,60 @@
+package org.cacummaro.service.pdf;
+
+import java.util.Map;
+
+/**
+ * Result of one parse of a PDF: text, how much of the document it covers and the document
+ * information dictionary
+ */
+public class PdfText {
+
+    public enum Cutoff {
+        /** Every page was read */
+        NONE,
+        /** Extraction stopped at the character budget */
+        CHARACTERS,
+        /** Extraction stopped at the page budget */
+        PAGES
+    }
+
+    private final String text;
+    private final int pagesRead;
+    private final int pageCount;
+    private final Cutoff cutoff;
+    private final Map<String, String> metadata;
+
+    public PdfText(String text, int pagesRead, int pageCount, Cutoff cutoff, Map<String, String> metadata) {
+        this.text = text;
+        this.pagesRead = pagesRead;
+        this.pageCount = pageCount;
+        this.cutoff = cutoff;
+        this.metadata = metadata;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public int getPagesRead() {
+        return pagesRead;
+    }
+
+    public int getPageCount() {
+        return pageCount;
+    }
+
+    public Cutoff getCutoff() {
+        return cutoff;
+    }
+
+    /**
+     * String entries of the document information dictionary (Title, Author, Producer, ...)
+     */
+    public Map<String, String> getMetadata() {
+        return metadata;
+    }
+
+    public boolean isTruncated() {
+        return cutoff != Cutoff.NONE;
+    }
+}
@@ -1,54 +1,246 @@
 package org.cacummaro.service.pdf;
 
+import org.apache.pdfbox.io.MemoryUsageSetting;
 import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDDocumentInformation;
+import org.apache.pdfbox.pdmodel.PDPage;
 import org.apache.pdfbox.text.PDFTextStripper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
-import java.io.ByteArrayInputStream;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 @Service
 public class PdfTextExtractor {
 
     private static final Logger logger = LoggerFactory.getLogger(PdfTextExtractor.class);
-    private static final int MAX_TEXT_LENGTH = 100000; // Limit to 100k characters
+
+    private static final int MIN_CHUNK_PAGES = 8;
+    private static final int CHUNKS_PER_WORKER = 4;
+
+    // Reused across extractions on the same thread instead of growing a new builder each time
+    private static final ThreadLocal<StringBuilder> BUFFER = ThreadLocal.withInitial(StringBuilder::new);
+
+    @Value("${cacummaro.pdf.text.max-characters:100000}")
+    private int maxCharacters;
+
+    @Value("${cacummaro.pdf.text.max-pages:0}")
+    private int maxPages;
+
+    @Value("${cacummaro.pdf.text.parallel-threshold-pages:100}")
+    private int parallelThresholdPages;
+
+    @Value("${cacummaro.pdf.text.parallelism:0}")
+    private int parallelism;
+
+    @Value("${cacummaro.pdf.text.max-main-memory-bytes:16777216}")
+    private long maxMainMemoryBytes;
+
+    @Value("${cacummaro.pdf.text.scratch-dir:}")
+    private String scratchDir;
+
+    private ForkJoinPool extractionPool;
+
+    @PostConstruct
+    public void initialize() {
+        int workers = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        extractionPool = new ForkJoinPool(workers);
+    }
+
+    @PreDestroy
+    public void cleanup() {
+        extractionPool.shutdownNow();
+    }
 
     /**
      * Extract text content from PDF byte array
      *
      * @param pdfData PDF binary data
-     * @return Extracted text content
+     * @return Extracted text content, at most the configured character budget
      * @throws IOException if PDF cannot be read
      */
     public String extractText(byte[] pdfData) throws IOException {
+        return extract(pdfData).getText();
+    }
+
+    /**
+     * Extract text page by page, stopping as soon as the character or page budget is reached
+     *
+     * Pages past the budget are never parsed, so the cost is bounded by the budget rather
+     * than by the size of the document.
+     *
+     * @param pdfData PDF binary data
+     * @return Extracted text with the number of pages read and why extraction stopped
+     * @throws IOException if PDF cannot be read
+     */
+    public PdfText extract(byte[] pdfData) throws IOException {
         if (pdfData == null || pdfData.length == 0) {
             logger.warn("Cannot extract text from null or empty PDF data");
-            return "";
+            return new PdfText("", 0, 0, PdfText.Cutoff.NONE, Map.of());
         }
+        // Parsed straight from the array rather than copied into a stream buffer
+        return extract(memory -> PDDocument.load(pdfData, "", null, null, memory), true);
+    }
 
-        try (ByteArrayInputStream inputStream = new ByteArrayInputStream(pdfData);
-             PDDocument document = PDDocument.load(inputStream)) {
+    /**
+     * Extract text from a PDF file without reading it into the heap
+     *
+     * @param pdfFile PDF file
+     * @return Extracted text with page count, cutoff and document information
+     * @throws IOException if PDF cannot be read
+     */
+    public PdfText extract(Path pdfFile) throws IOException {
+        return extract(memory -> PDDocument.load(pdfFile.toFile(), memory), true);
+    }
 
-            PDFTextStripper stripper = new PDFTextStripper();
-            String text = stripper.getText(document);
+    /**
+     * Extract text from a streamed PDF, e.g. an attachment stream from CouchDB
+     *
+     * The stream is buffered in at most {@code max-main-memory-bytes} of heap and spills to a
+     * scratch file beyond that. A stream can only be parsed once, so it is never split for
+     * parallel extraction.
+     *
+     * @param pdfStream PDF stream; not closed
+     * @return Extracted text with page count, cutoff and document information
+     * @throws IOException if PDF cannot be read
+     */
+    public PdfText extract(InputStream pdfStream) throws IOException {
+        return extract(memory -> PDDocument.load(pdfStream, memory), false);
+    }
 
-            // Limit text length to prevent memory issues
-            if (text.length() > MAX_TEXT_LENGTH) {
-                logger.debug("PDF text truncated from {} to {} characters", text.length(), MAX_TEXT_LENGTH);
-                text = text.substring(0, MAX_TEXT_LENGTH);
+    private PdfText extract(PdfSource source, boolean reloadable) throws IOException {
+        int pageCount;
+        try (PDDocument document = source.load(memoryUsage())) {
+            pageCount = document.getNumberOfPages();
+            Map<String, String> metadata = metadata(document);
+            if (!reloadable || !useParallel(pageCount)) {
+                return extractSequential(document, pageCount, metadata);
             }
-
-            logger.debug("Extracted {} characters from PDF ({} pages)",
-                        text.length(), document.getNumberOfPages());
-
-            return text;
-
         } catch (IOException e) {
             logger.error("Failed to extract text from PDF: {}", e.getMessage());
             throw e;
         }
+        return extractParallel(source, pageCount);
+    }
+
+    private PdfText extractSequential(PDDocument document, int pageCount, Map<String, String> metadata)
+            throws IOException {
+        StringBuilder buffer = BUFFER.get();
+        buffer.setLength(0);
+        BudgetedTextStripper stripper = new BudgetedTextStripper(new BoundedWriter(buffer, maxCharacters));
+        if (maxPages > 0) {
+            stripper.setEndPage(maxPages);
+        }
+        stripper.writeText(document, stripper.output);
+
+        PdfText.Cutoff cutoff = stripper.output.overflowed ? PdfText.Cutoff.CHARACTERS
+                : maxPages > 0 && pageCount > maxPages ? PdfText.Cutoff.PAGES
+                : PdfText.Cutoff.NONE;
+        String text = buffer.toString();
+        if (buffer.capacity() > maxCharacters * 2) {
+            // Do not pin a buffer grown past the budget to the thread
+            BUFFER.remove();
+        }
+
+        logger.debug("Extracted {} characters from PDF ({} of {} pages, cutoff: {})",
+                    text.length(), stripper.pagesRead, pageCount, cutoff);
+
+        return new PdfText(text, stripper.pagesRead, pageCount, cutoff, metadata);
+    }
+
+    /**
+     * Split the pages into chunks and strip them on the pool, each worker with its own
+     * PDDocument since PDFBox documents are not thread-safe. Chunks run in waves of one per
+     * worker, so at most one wave is read past the character budget.
+     */
+    private PdfText extractParallel(PdfSource source, int pageCount) throws IOException {
+        int lastPage = maxPages > 0 ? Math.min(maxPages, pageCount) : pageCount;
+        int workers = extractionPool.getParallelism();
+        int chunkPages = Math.max(MIN_CHUNK_PAGES, (lastPage + workers * CHUNKS_PER_WORKER - 1) / (workers * CHUNKS_PER_WORKER));
+
+        StringBuilder buffer = new StringBuilder(Math.min(maxCharacters, 1 << 20));
+        BoundedWriter output = new BoundedWriter(buffer, maxCharacters);
+        Map<String, String> metadata = Map.of();
+        int pagesRead = 0;
+        int nextPage = 1;
+        while (nextPage <= lastPage && !output.overflowed) {
+            List<Callable<PageChunk>> wave = new ArrayList<>(workers);
+            for (int i = 0; i < workers && nextPage <= lastPage; i++) {
+                int first = nextPage;
+                int last = Math.min(lastPage, first + chunkPages - 1);
+                wave.add(() -> extractChunk(source, first, last));
+                nextPage = last + 1;
+            }
+
+            for (Future<PageChunk> future : extractionPool.invokeAll(wave)) {
+                PageChunk chunk = join(future);
+                if (output.overflowed) {
+                    break;
+                }
+                if (chunk.firstPage == 1) {
+                    metadata = chunk.metadata;
+                }
+                output.write(chunk.text, 0, chunk.text.length());
+                pagesRead += chunk.pagesRead;
+            }
+        }
+
+        PdfText.Cutoff cutoff = output.overflowed ? PdfText.Cutoff.CHARACTERS
+                : lastPage < pageCount ? PdfText.Cutoff.PAGES
+                : PdfText.Cutoff.NONE;
+        logger.debug("Extracted {} characters from PDF in parallel ({} of {} pages, {} pages per chunk, cutoff: {})",
+                    buffer.length(), pagesRead, pageCount, chunkPages, cutoff);
+
+        return new PdfText(buffer.toString(), pagesRead, pageCount, cutoff, metadata);
+    }
+
+    private PageChunk extractChunk(PdfSource source, int firstPage, int lastPage) throws IOException {
+        try (PDDocument document = source.load(memoryUsage())) {
+            // No chunk can contribute more than the whole budget
+            BudgetedTextStripper stripper = new BudgetedTextStripper(
+                    new BoundedWriter(new StringBuilder(), maxCharacters + 1));
+            stripper.setStartPage(firstPage);
+            stripper.setEndPage(lastPage);
+            stripper.writeText(document, stripper.output);
+            return new PageChunk(firstPage, stripper.output.buffer.toString(), stripper.pagesRead,
+                    firstPage == 1 ? metadata(document) : Map.of());
+        }
+    }
+
+    private PageChunk join(Future<PageChunk> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while extracting PDF text", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Failed to extract PDF text: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    private boolean useParallel(int pageCount) {
+        int pagesToRead = maxPages > 0 ? Math.min(maxPages, pageCount) : pageCount;
+        return parallelThresholdPages > 0 && pagesToRead >= parallelThresholdPages
+                && extractionPool.getParallelism() > 1;
     }
 
     /**
@@ -66,8 +258,7 @@ public class PdfTextExtractor {
             return "";
         }
 
-        try (ByteArrayInputStream inputStream = new ByteArrayInputStream(pdfData);
-             PDDocument document = PDDocument.load(inputStream)) {
+        try (PDDocument document = PDDocument.load(pdfData, "", null, null, memoryUsage())) {
 
             PDFTextStripper stripper = new PDFTextStripper();
             stripper.setStartPage(startPage);
@@ -90,6 +281,9 @@ public class PdfTextExtractor {
     /**
      * Get page count from PDF
      *
+     * Callers that also need the text should use {@link #extract(byte[])}, which reports the
+     * page count from the same parse.
+     *
      * @param pdfData PDF binary data
      * @return Number of pages
      * @throws IOException if PDF cannot be read
@@ -99,9 +293,116 @@ public class PdfTextExtractor {
             return 0;
         }
 
-        try (ByteArrayInputStream inputStream = new ByteArrayInputStream(pdfData);
-             PDDocument document = PDDocument.load(inputStream)) {
+        try (PDDocument document = PDDocument.load(pdfData, "", null, null, memoryUsage())) {
             return document.getNumberOfPages();
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Heap buffer capped at the configured size, spilling to a scratch file beyond it
+     */
+    private MemoryUsageSetting memoryUsage() {
+        MemoryUsageSetting memory = MemoryUsageSetting.setupMixed(maxMainMemoryBytes);
+        if (scratchDir != null && !scratchDir.isBlank()) {
+            memory.setTempDir(new File(scratchDir));
+        }
+        return memory;
+    }
+
+    private static Map<String, String> metadata(PDDocument document) {
+        PDDocumentInformation information = document.getDocumentInformation();
+        Map<String, String> metadata = new LinkedHashMap<>();
+        for (String key : information.getMetadataKeys()) {
+            // Only string entries; dates and other types come back as null
+            String value = information.getCustomMetadataValue(key);
+            if (value != null && !value.isBlank()) {
+                metadata.put(key, value.trim());
+            }
+        }
+        return metadata;
+    }
+
+    @FunctionalInterface
+    private interface PdfSource {
+        PDDocument load(MemoryUsageSetting memory) throws IOException;
+    }
+
+    private static final class PageChunk {
+        final int firstPage;
+        final String text;
+        final int pagesRead;
+        final Map<String, String> metadata;
+
+        PageChunk(int firstPage, String text, int pagesRead, Map<String, String> metadata) {
+            this.firstPage = firstPage;
+            this.text = text;
+            this.pagesRead = pagesRead;
+            this.metadata = metadata;
+        }
+    }
+
+    /**
+     * Skips every page once the writer has hit the character budget
+     */
+    private static final class BudgetedTextStripper extends PDFTextStripper {
+
+        private final BoundedWriter output;
+        private int pagesRead;
+
+        BudgetedTextStripper(BoundedWriter output) throws IOException {
+            this.output = output;
+        }
+
+        @Override
+        public void processPage(PDPage page) throws IOException {
+            if (output.overflowed || getCurrentPageNo() < getStartPage() || getCurrentPageNo() > getEndPage()) {
+                return;
+            }
+            super.processPage(page);
+            pagesRead++;
+        }
+    }
+
+    /**
+     * Appends to a shared buffer and drops everything past the limit
+     */
+    private static final class BoundedWriter extends Writer {
+
+        private final StringBuilder buffer;
+        private final int limit;
+        private boolean overflowed;
+
+        BoundedWriter(StringBuilder buffer, int limit) {
+            this.buffer = buffer;
+            this.limit = limit;
+        }
+
+        @Override
+        public void write(char[] chars, int offset, int length) {
+            int room = limit - buffer.length();
+            if (length > room) {
+                overflowed = true;
+                length = Math.max(0, room);
+            }
+            buffer.append(chars, offset, length);
+        }
+
+        @Override
+        public void write(String text, int offset, int length) {
+            int room = limit - buffer.length();
+            if (length > room) {
+                overflowed = true;
+                length = Math.max(0, room);
+            }
+            buffer.append(text, offset, offset + length);
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package org.cacummaro.service.search;
+
+/**
+ * One value of a facet with the number of matching documents carrying it.
+ */
+public class FacetValue {
+
+    private final String value;
+    private final long count;
+
+    public FacetValue(String value, long count) {
+        this.value = value;
+        this.count = count;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    public long getCount() {
+        return count;
+    }
+}
@@ -0,0 +1,55 @@
+package org.cacummaro.service.search;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Filters for a faceted search. Values within one facet are OR-ed, facets are AND-ed.
+ */
+public class FacetedSearchRequest {
+
+    private final String query;
+    private final List<String> categories;
+    private final List<String> hosts;
+    private final List<String> months;
+    private final Instant fetchedFrom;
+    private final Instant fetchedTo;
+
+    public FacetedSearchRequest(String query, List<String> categories, List<String> hosts,
+                                List<String> months, Instant fetchedFrom, Instant fetchedTo) {
+        this.query = query;
+        this.categories = categories != null ? categories : List.of();
+        this.hosts = hosts != null ? hosts : List.of();
+        this.months = months != null ? months : List.of();
+        this.fetchedFrom = fetchedFrom;
+        this.fetchedTo = fetchedTo;
+    }
+
+    public String getQuery() {
+        return query;
+    }
+
+    public boolean hasQuery() {
+        return query != null && !query.isBlank();
+    }
+
+    public List<String> getCategories() {
+        return categories;
+    }
+
+    public List<String> getHosts() {
+        return hosts;
+    }
+
+    public List<String> getMonths() {
+        return months;
+    }
+
+    public Instant getFetchedFrom() {
+        return fetchedFrom;
+    }
+
+    public Instant getFetchedTo() {
+        return fetchedTo;
+    }
+}
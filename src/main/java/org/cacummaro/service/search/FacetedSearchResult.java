@@ -0,0 +1,28 @@
+package org.cacummaro.service.search;
+
+import org.springframework.data.domain.Page;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A page of search hits together with per-facet value counts for the whole result set.
+ */
+public class FacetedSearchResult {
+
+    private final Page<SearchHit> hits;
+    private final Map<String, List<FacetValue>> facets;
+
+    public FacetedSearchResult(Page<SearchHit> hits, Map<String, List<FacetValue>> facets) {
+        this.hits = hits;
+        this.facets = facets;
+    }
+
+    public Page<SearchHit> getHits() {
+        return hits;
+    }
+
+    public Map<String, List<FacetValue>> getFacets() {
+        return facets;
+    }
+}
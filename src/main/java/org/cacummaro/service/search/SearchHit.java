@@ -0,0 +1,33 @@
+package org.cacummaro.service.search;
+
+import org.cacummaro.domain.Document;
+
+import java.util.List;
+
+/**
+ * A ranked search result with highlighted passages from the matching text.
+ */
+public class SearchHit {
+
+    private final Document document;
+    private final float score;
+    private final List<String> highlights;
+
+    public SearchHit(Document document, float score, List<String> highlights) {
+        this.document = document;
+        this.score = score;
+        this.highlights = highlights;
+    }
+
+    public Document getDocument() {
+        return document;
+    }
+
+    public float getScore() {
+        return score;
+    }
+
+    public List<String> getHighlights() {
+        return highlights;
+    }
+}
@@ -0,0 +1,686 @@
+package org.cacummaro.service.search;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FieldType;
+import org.apache.lucene.document.LongPoint;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.facet.DrillDownQuery;
+import org.apache.lucene.facet.DrillSideways;
+import org.apache.lucene.facet.FacetResult;
+import org.apache.lucene.facet.FacetsConfig;
+import org.apache.lucene.facet.LabelAndValue;
+import org.apache.lucene.facet.sortedset.DefaultSortedSetDocValuesReaderState;
+import org.apache.lucene.facet.sortedset.SortedSetDocValuesFacetField;
+import org.apache.lucene.facet.sortedset.SortedSetDocValuesReaderState;
+import org.apache.lucene.index.IndexOptions;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.queryparser.classic.MultiFieldQueryParser;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TotalHits;
+import org.apache.lucene.search.uhighlight.UnifiedHighlighter;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Bits;
+import org.cacummaro.domain.CategoryAssignment;
+import org.cacummaro.domain.Document;
+import org.cacummaro.repository.CursorPage;
+import org.cacummaro.repository.DocumentRepository;
+import org.cacummaro.service.changes.DocumentChangeListener;
+import org.cacummaro.service.pdf.ExtractedTextService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Full-text search index over document metadata and extracted PDF text
+ *
+ * Backed by an embedded Lucene index on local disk. Ranking uses Lucene's default BM25
+ * similarity; the query syntax supports quoted phrases, field prefixes and boolean operators.
+ * Changes made outside this node (other instances, imports, direct CouchDB edits) reach the
+ * index through the _changes feed.
+ *
+ * Writes become searchable through a near-real-time reopen of the writer's reader, which
+ * needs no fsync. They are committed to disk every {@code commit-interval-ms}, after a
+ * rebuild and at shutdown, so a crash loses at most that interval of index updates; the
+ * _changes checkpoint is kept separately, so those updates are not replayed by the feed.
+ */
+@Service
+public class SearchIndexService implements DocumentChangeListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(SearchIndexService.class);
+
+    static final String FIELD_ID = "id";
+    static final String FIELD_TITLE = "title";
+    static final String FIELD_DESCRIPTION = "description";
+    static final String FIELD_URL = "url";
+    static final String FIELD_CONTENT = "content";
+    static final String FIELD_REVISION = "rev";
+    static final String FIELD_FETCHED_AT = "fetched_at";
+
+    public static final String FACET_CATEGORY = "category";
+    public static final String FACET_HOST = "host";
+    public static final String FACET_MONTH = "month";
+
+    private static final int MAX_VECTOR_TERMS = 64;
+    private static final String[] SEARCH_FIELDS = {FIELD_TITLE, FIELD_DESCRIPTION, FIELD_URL, FIELD_CONTENT};
+    private static final Map<String, Float> FIELD_BOOSTS = Map.of(
+            FIELD_TITLE, 3.0f,
+            FIELD_DESCRIPTION, 2.0f,
+            FIELD_URL, 1.0f,
+            FIELD_CONTENT, 1.0f);
+    private static final int MAX_RESULT_WINDOW = 10000;
+    private static final int MAX_CONTENT_PASSAGES = 3;
+    private static final int REBUILD_PAGE_SIZE = 100;
+    private static final int MAX_FACET_VALUES = 50;
+    private static final DateTimeFormatter MONTH_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM").withZone(ZoneOffset.UTC);
+
+    // Offsets in the postings let the highlighter skip re-analysing the stored text
+    private static final FieldType HIGHLIGHTED_TEXT = new FieldType(TextField.TYPE_STORED);
+
+    static {
+        HIGHLIGHTED_TEXT.setIndexOptions(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS_AND_OFFSETS);
+        HIGHLIGHTED_TEXT.freeze();
+    }
+
+    @Value("${cacummaro.search.enabled:true}")
+    private boolean enabled;
+
+    @Value("${cacummaro.search.index-path:./search-index}")
+    private String indexPath;
+
+    @Value("${cacummaro.search.commit-interval-ms:30000}")
+    private long commitIntervalMs;
+
+    private final DocumentRepository documentRepository;
+    private final ExtractedTextService extractedTextService;
+    private final Analyzer analyzer = new StandardAnalyzer();
+    private final FacetsConfig facetsConfig = new FacetsConfig();
+
+    private Directory directory;
+    private IndexWriter indexWriter;
+    private SearcherManager searcherManager;
+    private ScheduledExecutorService commitScheduler;
+    private volatile boolean pendingChanges;
+    // Ids indexed since the running rebuild started; null when no rebuild runs
+    private volatile Set<String> rebuildIndexed;
+    private FacetState facetState;
+
+    @Autowired
+    public SearchIndexService(DocumentRepository documentRepository, ExtractedTextService extractedTextService) {
+        this.documentRepository = documentRepository;
+        this.extractedTextService = extractedTextService;
+        facetsConfig.setMultiValued(FACET_CATEGORY, true);
+    }
+
+    @PostConstruct
+    public void initialize() {
+        if (!enabled) {
+            logger.info("Search index is disabled. Set cacummaro.search.enabled=true to enable");
+            return;
+        }
+
+        try {
+            Path path = Paths.get(indexPath);
+            Files.createDirectories(path);
+            directory = FSDirectory.open(path);
+            indexWriter = new IndexWriter(directory, new IndexWriterConfig(analyzer)
+                    .setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND));
+            searcherManager = new SearcherManager(indexWriter, null);
+            logger.info("Search index opened at {} ({} documents)", indexPath, indexWriter.getDocStats().numDocs);
+
+            commitScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "search-index-commit");
+                thread.setDaemon(true);
+                return thread;
+            });
+            commitScheduler.scheduleWithFixedDelay(
+                    this::commitIfChanged, commitIntervalMs, commitIntervalMs, TimeUnit.MILLISECONDS);
+        } catch (IOException e) {
+            logger.error("Failed to open search index at {}: {}. Falling back to metadata scan.",
+                        indexPath, e.getMessage(), e);
+            indexWriter = null;
+        }
+    }
+
+    @PreDestroy
+    public void cleanup() {
+        if (indexWriter == null) {
+            return;
+        }
+        commitScheduler.shutdownNow();
+        try {
+            searcherManager.close();
+            indexWriter.commit();
+            indexWriter.close();
+            directory.close();
+            logger.info("Search index closed");
+        } catch (IOException e) {
+            logger.error("Error closing search index: {}", e.getMessage());
+        }
+    }
+
+    public boolean isAvailable() {
+        return enabled && indexWriter != null;
+    }
+
+    /**
+     * Add or replace a document in the index
+     *
+     * @param document Document metadata
+     * @param text Extracted PDF text, may be null
+     * @throws IOException if the index cannot be written
+     */
+    public void indexDocument(Document document, String text) throws IOException {
+        if (!isAvailable()) {
+            return;
+        }
+        indexWriter.updateDocument(new Term(FIELD_ID, document.getId()), toIndexDocument(document, text));
+        markIndexed(document.getId());
+        searcherManager.maybeRefresh();
+        logger.debug("Indexed document {} ({} characters of text)", document.getId(), text != null ? text.length() : 0);
+    }
+
+    public void deleteDocument(String documentId) throws IOException {
+        if (!isAvailable()) {
+            return;
+        }
+        indexWriter.deleteDocuments(new Term(FIELD_ID, documentId));
+        searcherManager.maybeRefresh();
+    }
+
+    @Override
+    public void onDocumentChanged(Document document) throws IOException {
+        if (!isAvailable()) {
+            return;
+        }
+        // Our own writes come back through the feed; skip revisions that are already indexed
+        if (document.getRevision() != null && document.getRevision().equals(indexedRevision(document.getId()))) {
+            return;
+        }
+        indexWriter.updateDocument(new Term(FIELD_ID, document.getId()), toIndexDocument(document, extractText(document)));
+        markIndexed(document.getId());
+        pendingChanges = true;
+    }
+
+    @Override
+    public void onDocumentDeleted(String documentId) throws IOException {
+        if (!isAvailable()) {
+            return;
+        }
+        indexWriter.deleteDocuments(new Term(FIELD_ID, documentId));
+        pendingChanges = true;
+    }
+
+    @Override
+    public void afterBatch() throws IOException {
+        if (pendingChanges) {
+            pendingChanges = false;
+            searcherManager.maybeRefresh();
+        }
+    }
+
+    @Override
+    public String getListenerName() {
+        return "search-index";
+    }
+
+    /**
+     * Search the index and load the matching documents from CouchDB in one request
+     *
+     * @param queryText Lucene query syntax; falls back to literal terms if it does not parse
+     * @param pageable Page to return; results beyond the first 10000 are not reachable
+     * @return Ranked hits with highlighted passages
+     * @throws IOException if the index cannot be read
+     */
+    public Page<SearchHit> search(String queryText, Pageable pageable) throws IOException {
+        Query query = parseQuery(queryText);
+        int offset = (int) Math.min(pageable.getOffset(), MAX_RESULT_WINDOW);
+        int window = Math.max(1, Math.min(offset + pageable.getPageSize(), MAX_RESULT_WINDOW));
+
+        IndexSearcher searcher = searcherManager.acquire();
+        try {
+            TopDocs topDocs = searcher.search(query, window);
+            long totalHits = topDocs.totalHits.relation == TotalHits.Relation.EQUAL_TO
+                    ? topDocs.totalHits.value
+                    : searcher.count(query);
+
+            ScoreDoc[] pageDocs = Arrays.copyOfRange(topDocs.scoreDocs,
+                    Math.min(offset, topDocs.scoreDocs.length), topDocs.scoreDocs.length);
+            if (pageDocs.length == 0) {
+                return new PageImpl<>(List.of(), pageable, totalHits);
+            }
+
+            return new PageImpl<>(loadHits(searcher, query, topDocs, pageDocs), pageable, totalHits);
+        } finally {
+            searcherManager.release(searcher);
+        }
+    }
+
+    /**
+     * Search with facet filters and count category, host and month values in the same pass
+     *
+     * Counts for a facet ignore that facet's own filter (drill-sideways), so selecting one
+     * category still shows how many matches the other categories would give.
+     *
+     * @param request Free-text query (optional) and facet filters
+     * @param pageable Page to return; results beyond the first 10000 are not reachable
+     * @return Ranked hits, or newest first without a text query, plus facet counts
+     * @throws IOException if the index cannot be read
+     */
+    public FacetedSearchResult facetedSearch(FacetedSearchRequest request, Pageable pageable) throws IOException {
+        Query baseQuery = request.hasQuery() ? parseQuery(request.getQuery()) : new MatchAllDocsQuery();
+        DrillDownQuery drillDown = new DrillDownQuery(facetsConfig, baseQuery);
+        request.getCategories().forEach(category -> drillDown.add(FACET_CATEGORY, category));
+        request.getHosts().forEach(host -> drillDown.add(FACET_HOST, normalizeHost(host)));
+        request.getMonths().forEach(month -> drillDown.add(FACET_MONTH, month));
+
+        Query dateFilter = null;
+        if (request.getFetchedFrom() != null || request.getFetchedTo() != null) {
+            long from = request.getFetchedFrom() != null ? request.getFetchedFrom().toEpochMilli() : Long.MIN_VALUE;
+            long to = request.getFetchedTo() != null ? request.getFetchedTo().toEpochMilli() : Long.MAX_VALUE;
+            dateFilter = LongPoint.newRangeQuery(FIELD_FETCHED_AT, from, to);
+        }
+        Sort sort = request.hasQuery() ? null : new Sort(new SortField(FIELD_FETCHED_AT, SortField.Type.LONG, true));
+
+        int offset = (int) Math.min(pageable.getOffset(), MAX_RESULT_WINDOW);
+        int window = Math.max(1, Math.min(offset + pageable.getPageSize(), MAX_RESULT_WINDOW));
+
+        IndexSearcher searcher = searcherManager.acquire();
+        try {
+            SortedSetDocValuesReaderState state = facetState(searcher.getIndexReader());
+            if (state == null) {
+                // No document has been indexed with facets yet
+                return new FacetedSearchResult(new PageImpl<>(List.of(), pageable, 0), Map.of());
+            }
+
+            DrillSideways.DrillSidewaysResult result = new DrillSideways(searcher, facetsConfig, state)
+                    .search(drillDown, dateFilter, null, window, sort, request.hasQuery());
+            TopDocs topDocs = result.hits;
+            ScoreDoc[] pageDocs = Arrays.copyOfRange(topDocs.scoreDocs,
+                    Math.min(offset, topDocs.scoreDocs.length), topDocs.scoreDocs.length);
+            List<SearchHit> hits = pageDocs.length == 0
+                    ? List.of()
+                    : loadHits(searcher, request.hasQuery() ? baseQuery : null, topDocs, pageDocs);
+
+            Map<String, List<FacetValue>> facets = new LinkedHashMap<>();
+            for (String dimension : new String[]{FACET_CATEGORY, FACET_HOST, FACET_MONTH}) {
+                FacetResult facetResult = result.facets.getTopChildren(MAX_FACET_VALUES, dimension);
+                List<FacetValue> values = new ArrayList<>();
+                if (facetResult != null) {
+                    for (LabelAndValue labelAndValue : facetResult.labelValues) {
+                        values.add(new FacetValue(labelAndValue.label, labelAndValue.value.longValue()));
+                    }
+                }
+                if (FACET_MONTH.equals(dimension)) {
+                    values.sort(Comparator.comparing(FacetValue::getValue).reversed());
+                }
+                facets.put(dimension, values);
+            }
+
+            return new FacetedSearchResult(new PageImpl<>(hits, pageable, topDocs.totalHits.value), facets);
+        } finally {
+            searcherManager.release(searcher);
+        }
+    }
+
+    /**
+     * Re-index the whole corpus from CouchDB, extracting PDF text for every document
+     *
+     * Documents are replaced one by one rather than after clearing the index, so a refresh or
+     * commit made meanwhile by ingestion or the changes feed publishes every document in either
+     * its old or its new form. Documents no longer in CouchDB are removed at the end. Text is
+     * only read, so a rebuild never writes to CouchDB.
+     *
+     * @return Number of documents indexed
+     * @throws IOException if the index cannot be written
+     */
+    public synchronized long rebuild() throws IOException {
+        if (!isAvailable()) {
+            throw new IOException("Search index is not available");
+        }
+
+        logger.info("Rebuilding search index");
+        Set<String> indexedIds = ConcurrentHashMap.newKeySet();
+        rebuildIndexed = indexedIds;
+        try {
+            long indexed = 0;
+            String cursor = null;
+            do {
+                CursorPage<Document> page = documentRepository.findAll(cursor, REBUILD_PAGE_SIZE);
+                for (Document document : page.getContent()) {
+                    indexWriter.updateDocument(new Term(FIELD_ID, document.getId()),
+                            toIndexDocument(document, extractText(document)));
+                    indexedIds.add(document.getId());
+                    indexed++;
+                }
+                cursor = page.getNextCursor();
+            } while (cursor != null);
+
+            int removed = deleteDocumentsNotIn(indexedIds);
+            indexWriter.commit();
+            searcherManager.maybeRefresh();
+            logger.info("Search index rebuilt with {} documents ({} stale documents removed)", indexed, removed);
+            return indexed;
+        } finally {
+            rebuildIndexed = null;
+        }
+    }
+
+    private void markIndexed(String documentId) {
+        Set<String> indexedIds = rebuildIndexed;
+        if (indexedIds != null) {
+            indexedIds.add(documentId);
+        }
+    }
+
+    /**
+     * Delete the indexed documents whose id is not in {@code keep}
+     *
+     * @return Number of documents deleted
+     */
+    private int deleteDocumentsNotIn(Set<String> keep) throws IOException {
+        List<String> stale = new ArrayList<>();
+        IndexSearcher searcher = searcherManager.acquire();
+        try {
+            for (LeafReaderContext leaf : searcher.getIndexReader().leaves()) {
+                Bits liveDocs = leaf.reader().getLiveDocs();
+                for (int doc = 0; doc < leaf.reader().maxDoc(); doc++) {
+                    if (liveDocs != null && !liveDocs.get(doc)) {
+                        continue;
+                    }
+                    String id = leaf.reader().document(doc, Set.of(FIELD_ID)).get(FIELD_ID);
+                    if (id != null && !keep.contains(id)) {
+                        stale.add(id);
+                    }
+                }
+            }
+        } finally {
+            searcherManager.release(searcher);
+        }
+        for (String id : stale) {
+            indexWriter.deleteDocuments(new Term(FIELD_ID, id));
+        }
+        return stale.size();
+    }
+
+    private List<SearchHit> loadHits(IndexSearcher searcher, Query query, TopDocs topDocs, ScoreDoc[] pageDocs)
+            throws IOException {
+        Map<String, String[]> highlights = Map.of();
+        if (query != null) {
+            UnifiedHighlighter highlighter = new UnifiedHighlighter(searcher, analyzer);
+            highlighter.setMaxNoHighlightPassages(0);
+            highlights = highlighter.highlightFields(new String[]{FIELD_TITLE, FIELD_CONTENT}, query,
+                    new TopDocs(topDocs.totalHits, pageDocs), new int[]{1, MAX_CONTENT_PASSAGES});
+        }
+
+        List<String> ids = new ArrayList<>(pageDocs.length);
+        for (ScoreDoc scoreDoc : pageDocs) {
+            ids.add(searcher.doc(scoreDoc.doc, Set.of(FIELD_ID)).get(FIELD_ID));
+        }
+        Map<String, Document> documents = documentRepository.findAllById(ids).stream()
+                .collect(Collectors.toMap(Document::getId, Function.identity(), (a, b) -> a));
+
+        List<SearchHit> hits = new ArrayList<>(pageDocs.length);
+        for (int i = 0; i < pageDocs.length; i++) {
+            Document document = documents.get(ids.get(i));
+            if (document == null) {
+                // Deleted from CouchDB but not yet from the index
+                continue;
+            }
+            List<String> passages = new ArrayList<>(2);
+            for (String field : new String[]{FIELD_TITLE, FIELD_CONTENT}) {
+                String[] fieldHighlights = highlights.get(field);
+                if (fieldHighlights != null && fieldHighlights[i] != null) {
+                    passages.add(fieldHighlights[i]);
+                }
+            }
+            hits.add(new SearchHit(document, pageDocs[i].score, passages));
+        }
+        return hits;
+    }
+
+    private synchronized SortedSetDocValuesReaderState facetState(IndexReader reader) throws IOException {
+        // Building the ordinal map is linear in the number of facet values; reuse it until the reader changes
+        if (facetState == null || facetState.reader != reader) {
+            try {
+                facetState = new FacetState(reader, new DefaultSortedSetDocValuesReaderState(reader));
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+        return facetState.state;
+    }
+
+    private String indexedRevision(String documentId) throws IOException {
+        IndexSearcher searcher = searcherManager.acquire();
+        try {
+            TopDocs topDocs = searcher.search(new TermQuery(new Term(FIELD_ID, documentId)), 1);
+            if (topDocs.scoreDocs.length == 0) {
+                return null;
+            }
+            return searcher.doc(topDocs.scoreDocs[0].doc, Set.of(FIELD_REVISION)).get(FIELD_REVISION);
+        } finally {
+            searcherManager.release(searcher);
+        }
+    }
+
+    private String extractText(Document document) {
+        try {
+            // Read-only: indexing never writes an attachment revision back to CouchDB
+            return extractedTextService.getText(document);
+        } catch (Exception e) {
+            logger.warn("Indexing metadata only for document {}: {}", document.getId(), e.getMessage());
+            return null;
+        }
+    }
+
+    private org.apache.lucene.document.Document toIndexDocument(Document document, String text) throws IOException {
+        org.apache.lucene.document.Document indexDocument = new org.apache.lucene.document.Document();
+        indexDocument.add(new StringField(FIELD_ID, document.getId(), Field.Store.YES));
+        if (document.getRevision() != null) {
+            indexDocument.add(new StoredField(FIELD_REVISION, document.getRevision()));
+        }
+        if (document.getTitle() != null) {
+            indexDocument.add(new Field(FIELD_TITLE, document.getTitle(), HIGHLIGHTED_TEXT));
+        }
+        if (document.getDescription() != null) {
+            indexDocument.add(new TextField(FIELD_DESCRIPTION, document.getDescription(), Field.Store.NO));
+        }
+        if (document.getUrl() != null) {
+            indexDocument.add(new TextField(FIELD_URL, document.getUrl(), Field.Store.NO));
+        }
+        if (text != null && !text.isEmpty()) {
+            indexDocument.add(new Field(FIELD_CONTENT, text, HIGHLIGHTED_TEXT));
+        }
+
+        if (document.getCategories() != null) {
+            document.getCategories().stream()
+                    .map(CategoryAssignment::getName)
+                    .filter(name -> name != null && !name.isEmpty())
+                    .distinct()
+                    .forEach(name -> indexDocument.add(new SortedSetDocValuesFacetField(FACET_CATEGORY, name)));
+        }
+        String host = hostOf(document.getUrl());
+        if (host != null) {
+            indexDocument.add(new SortedSetDocValuesFacetField(FACET_HOST, host));
+        }
+        Instant fetchedAt = parseFetchedAt(document.getFetchedAt());
+        if (fetchedAt != null) {
+            indexDocument.add(new LongPoint(FIELD_FETCHED_AT, fetchedAt.toEpochMilli()));
+            indexDocument.add(new NumericDocValuesField(FIELD_FETCHED_AT, fetchedAt.toEpochMilli()));
+            indexDocument.add(new SortedSetDocValuesFacetField(FACET_MONTH, MONTH_FORMAT.format(fetchedAt)));
+        }
+        return facetsConfig.build(indexDocument);
+    }
+
+    private static String hostOf(String url) {
+        if (url == null) {
+            return null;
+        }
+        try {
+            String host = URI.create(url.trim()).getHost();
+            return host != null ? normalizeHost(host) : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static String normalizeHost(String host) {
+        String normalized = host.trim().toLowerCase(Locale.ROOT);
+        return normalized.startsWith("www.") ? normalized.substring(4) : normalized;
+    }
+
+    private static Instant parseFetchedAt(String fetchedAt) {
+        if (fetchedAt == null) {
+            return null;
+        }
+        try {
+            return Instant.parse(fetchedAt);
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    private Query parseQuery(String queryText) {
+        MultiFieldQueryParser parser = new MultiFieldQueryParser(SEARCH_FIELDS, analyzer, FIELD_BOOSTS);
+        parser.setDefaultOperator(QueryParser.Operator.AND);
+        try {
+            return parser.parse(queryText);
+        } catch (ParseException e) {
+            // Unbalanced quotes or stray operators: search the literal terms instead
+            try {
+                return parser.parse(QueryParser.escape(queryText));
+            } catch (ParseException escaped) {
+                throw new IllegalArgumentException("Invalid search query: " + queryText, escaped);
+            }
+        }
+    }
+
+    /**
+     * TF-IDF vector of a document's strongest terms, for similar-document lookups
+     *
+     * Terms come from the index analyzer and document frequencies from the indexed content, so
+     * vectors exist whether or not the ML classifier is enabled or trained.
+     *
+     * @param document Document whose title and description are included
+     * @param text Extracted text, or null
+     * @return Up to 64 unit-length term weights, strongest first; null if the index is not
+     *         available or the document has no terms
+     * @throws IOException if the index cannot be read
+     */
+    public Map<String, Float> termVector(Document document, String text) throws IOException {
+        if (!isAvailable()) {
+            return null;
+        }
+
+        StringBuilder fullText = new StringBuilder();
+        for (String part : new String[]{document.getTitle(), document.getDescription(), text}) {
+            if (part != null) {
+                fullText.append(part).append('\n');
+            }
+        }
+        Map<String, Integer> termFrequencies = new HashMap<>();
+        try (TokenStream stream = analyzer.tokenStream(FIELD_CONTENT, fullText.toString())) {
+            CharTermAttribute term = stream.addAttribute(CharTermAttribute.class);
+            stream.reset();
+            while (stream.incrementToken()) {
+                if (term.length() > 1) {
+                    termFrequencies.merge(term.toString(), 1, Integer::sum);
+                }
+            }
+            stream.end();
+        }
+        if (termFrequencies.isEmpty()) {
+            return null;
+        }
+
+        List<Map.Entry<String, Double>> weights = new ArrayList<>(termFrequencies.size());
+        IndexSearcher searcher = searcherManager.acquire();
+        try {
+            IndexReader reader = searcher.getIndexReader();
+            double documents = reader.numDocs() + 1.0;
+            for (Map.Entry<String, Integer> entry : termFrequencies.entrySet()) {
+                // Smoothed so a new term stays finite and a term in every document stays just above 0
+                int documentFrequency = reader.docFreq(new Term(FIELD_CONTENT, entry.getKey()));
+                double idf = Math.log(documents / (documentFrequency + 0.5));
+                weights.add(Map.entry(entry.getKey(), (1 + Math.log(entry.getValue())) * idf));
+            }
+        } finally {
+            searcherManager.release(searcher);
+        }
+
+        weights.sort(Map.Entry.<String, Double>comparingByValue().reversed());
+        List<Map.Entry<String, Double>> strongest = weights.subList(0, Math.min(MAX_VECTOR_TERMS, weights.size()));
+        double magnitude = Math.sqrt(strongest.stream().mapToDouble(e -> e.getValue() * e.getValue()).sum());
+        Map<String, Float> vector = new LinkedHashMap<>();
+        for (Map.Entry<String, Double> entry : strongest) {
+            vector.put(entry.getKey(), (float) (entry.getValue() / magnitude));
+        }
+        return vector;
+    }
+
+    private void commitIfChanged() {
+        try {
+            if (indexWriter.hasUncommittedChanges()) {
+                indexWriter.commit();
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.error("Failed to commit search index: {}", e.getMessage(), e);
+        }
+    }
+
+    private static class FacetState {
+        final IndexReader reader;
+        final SortedSetDocValuesReaderState state;
+
+        FacetState(IndexReader reader, SortedSetDocValuesReaderState state) {
+            this.reader = reader;
+            this.state = state;
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package org.cacummaro.service.similar;
+
+import org.cacummaro.domain.Document;
+
+/**
+ * A related document with its cosine similarity to the query document.
+ */
+public class SimilarDocument {
+
+    private final Document document;
+    private final double similarity;
+
+    public SimilarDocument(Document document, double similarity) {
+        this.document = document;
+        this.similarity = similarity;
+    }
+
+    public Document getDocument() {
+        return document;
+    }
+
+    public double getSimilarity() {
+        return similarity;
+    }
+}
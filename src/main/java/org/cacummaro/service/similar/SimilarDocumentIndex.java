@@ -0,0 +1,402 @@
+package org.cacummaro.service.similar;
+
+import org.cacummaro.domain.Document;
+import org.cacummaro.repository.CursorPage;
+import org.cacummaro.repository.DocumentRepository;
+import org.cacummaro.service.changes.DocumentChangeListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Approximate nearest-neighbour index over the TF-IDF term vectors stored on documents
+ *
+ * Uses random-hyperplane LSH: each of {@code lsh-tables} tables hashes a vector to
+ * {@code lsh-bits} sign bits of pseudo-random projections, so vectors with a small angle share
+ * buckets. A lookup probes the query's bucket and its one-bit neighbours in every table and
+ * only scores those candidates exactly, instead of comparing against the whole corpus.
+ */
+@Service
+public class SimilarDocumentIndex implements DocumentChangeListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(SimilarDocumentIndex.class);
+    private static final int LOAD_PAGE_SIZE = 500;
+
+    @Value("${cacummaro.similar.enabled:true}")
+    private boolean enabled;
+
+    @Value("${cacummaro.similar.lsh-tables:32}")
+    private int tables;
+
+    @Value("${cacummaro.similar.lsh-bits:10}")
+    private int bits;
+
+    @Value("${cacummaro.similar.min-similarity:0.1}")
+    private double minSimilarity;
+
+    private final DocumentRepository documentRepository;
+
+    // Term ids of the stored vectors, with how many vectors use each; an id is reused once
+    // no vector uses it, so the table follows the indexed terms rather than every term seen
+    private final Map<String, Integer> termIds = new HashMap<>();
+    private final List<String> termsById = new ArrayList<>();
+    private int[] termReferences = new int[1024];
+    private final Deque<Integer> freeTermIds = new ArrayDeque<>();
+    // Documents live in int slots so buckets hold primitive arrays rather than id strings
+    private final Map<String, Integer> slotsById = new HashMap<>();
+    private final List<String> slotIds = new ArrayList<>();
+    private final List<TermVector> slotVectors = new ArrayList<>();
+    private final List<int[]> slotSignatures = new ArrayList<>();
+    private final Deque<Integer> freeSlots = new ArrayDeque<>();
+    private List<Map<Integer, SlotBucket>> buckets;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // Deletions seen while the initial load runs, so the load cannot resurrect them
+    private Set<String> deletedDuringLoad = new HashSet<>();
+
+    @Autowired
+    public SimilarDocumentIndex(DocumentRepository documentRepository) {
+        this.documentRepository = documentRepository;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void load() {
+        if (!enabled) {
+            logger.info("Similar documents are disabled. Set cacummaro.similar.enabled=true to enable");
+            return;
+        }
+        if (bits < 1 || bits > 30) {
+            throw new IllegalStateException("cacummaro.similar.lsh-bits must be between 1 and 30");
+        }
+        initBuckets();
+
+        Thread loader = new Thread(() -> {
+            try {
+                long start = System.currentTimeMillis();
+                String cursor = null;
+                do {
+                    CursorPage<Document> page = documentRepository.findAll(cursor, LOAD_PAGE_SIZE);
+                    lock.writeLock().lock();
+                    try {
+                        for (Document document : page.getContent()) {
+                            if (!deletedDuringLoad.contains(document.getId())) {
+                                put(document);
+                            }
+                        }
+                    } finally {
+                        lock.writeLock().unlock();
+                    }
+                    cursor = page.getNextCursor();
+                } while (cursor != null);
+
+                lock.writeLock().lock();
+                try {
+                    deletedDuringLoad = null;
+                } finally {
+                    lock.writeLock().unlock();
+                }
+                logger.info("Loaded {} document vectors for similarity lookups in {} ms",
+                        size(), System.currentTimeMillis() - start);
+            } catch (Exception e) {
+                logger.error("Failed to load document vectors: {}", e.getMessage(), e);
+            }
+        }, "similar-documents-loader");
+        loader.setDaemon(true);
+        loader.start();
+    }
+
+    /**
+     * Find documents whose term vectors are closest to the given document's
+     *
+     * @param document Query document; needs a stored term vector
+     * @param limit Maximum number of results
+     * @return Similar documents, most similar first; empty if the document has no vector
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public List<SimilarDocument> findSimilar(Document document, int limit) {
+        if (!enabled || buckets == null || document.getTermVector() == null || limit <= 0) {
+            return List.of();
+        }
+        int[] signature = signature(document.getTermVector());
+
+        List<Map.Entry<String, Double>> ranked = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            // Built under the lock, as ids are reused; terms no stored vector has get -1
+            TermVector query = TermVector.of(document.getTermVector(), term -> termIds.getOrDefault(term, -1));
+            if (query.isEmpty()) {
+                return List.of();
+            }
+            Integer self = slotsById.get(document.getId());
+            BitSet seen = new BitSet(slotIds.size());
+            if (self != null) {
+                seen.set(self);
+            }
+            int scored = 0;
+            for (int table = 0; table < tables; table++) {
+                Map<Integer, SlotBucket> tableBuckets = buckets.get(table);
+                for (int probe = -1; probe < bits; probe++) {
+                    int key = probe < 0 ? signature[table] : signature[table] ^ (1 << probe);
+                    SlotBucket bucket = tableBuckets.get(key);
+                    if (bucket == null) {
+                        continue;
+                    }
+                    for (int i = 0; i < bucket.size; i++) {
+                        int slot = bucket.slots[i];
+                        if (seen.get(slot)) {
+                            continue;
+                        }
+                        seen.set(slot);
+                        scored++;
+                        double similarity = query.cosine(slotVectors.get(slot));
+                        if (similarity >= minSimilarity) {
+                            ranked.add(Map.entry(slotIds.get(slot), similarity));
+                        }
+                    }
+                }
+            }
+            logger.debug("Scored {} LSH candidates of {} vectors for {}", scored, slotsById.size(), document.getId());
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        ranked.sort(Map.Entry.<String, Double>comparingByValue(Comparator.reverseOrder()));
+        List<Map.Entry<String, Double>> top = ranked.subList(0, Math.min(limit, ranked.size()));
+        Map<String, Document> documents = documentRepository.findAllById(
+                top.stream().map(Map.Entry::getKey).collect(Collectors.toList())).stream()
+                .collect(Collectors.toMap(Document::getId, Function.identity(), (a, b) -> a));
+
+        List<SimilarDocument> results = new ArrayList<>(top.size());
+        for (Map.Entry<String, Double> entry : top) {
+            Document similar = documents.get(entry.getKey());
+            if (similar != null) {
+                results.add(new SimilarDocument(similar, entry.getValue()));
+            }
+        }
+        return results;
+    }
+
+    @Override
+    public void onDocumentChanged(Document document) {
+        if (!enabled || buckets == null) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            put(document);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void onDocumentDeleted(String documentId) {
+        if (!enabled || buckets == null) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            remove(documentId);
+            if (deletedDuringLoad != null) {
+                deletedDuringLoad.add(documentId);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public String getListenerName() {
+        return "similar-documents";
+    }
+
+    private int size() {
+        lock.readLock().lock();
+        try {
+            return slotsById.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void initBuckets() {
+        List<Map<Integer, SlotBucket>> tableBuckets = new ArrayList<>(tables);
+        for (int table = 0; table < tables; table++) {
+            tableBuckets.add(new HashMap<>());
+        }
+        buckets = tableBuckets;
+    }
+
+    private void put(Document document) {
+        remove(document.getId());
+        if (document.getTermVector() == null || document.getTermVector().isEmpty()) {
+            return;
+        }
+
+        TermVector vector = TermVector.of(document.getTermVector(), this::acquireTermId);
+        int[] signature = signature(document.getTermVector());
+        int slot;
+        if (freeSlots.isEmpty()) {
+            slot = slotIds.size();
+            slotIds.add(document.getId());
+            slotVectors.add(vector);
+            slotSignatures.add(signature);
+        } else {
+            slot = freeSlots.pop();
+            slotIds.set(slot, document.getId());
+            slotVectors.set(slot, vector);
+            slotSignatures.set(slot, signature);
+        }
+        slotsById.put(document.getId(), slot);
+        for (int table = 0; table < tables; table++) {
+            buckets.get(table).computeIfAbsent(signature[table], key -> new SlotBucket()).add(slot);
+        }
+    }
+
+    private void remove(String documentId) {
+        Integer slot = slotsById.remove(documentId);
+        if (slot == null) {
+            return;
+        }
+        int[] signature = slotSignatures.get(slot);
+        for (int table = 0; table < tables; table++) {
+            SlotBucket bucket = buckets.get(table).get(signature[table]);
+            if (bucket != null && bucket.remove(slot) && bucket.size == 0) {
+                buckets.get(table).remove(signature[table]);
+            }
+        }
+        releaseTermIds(slotVectors.get(slot));
+        slotIds.set(slot, null);
+        slotVectors.set(slot, null);
+        slotSignatures.set(slot, null);
+        freeSlots.push(slot);
+    }
+
+    /**
+     * Sign bits of the vector's projections onto pseudo-random +1/-1 hyperplanes. The
+     * hyperplane component for a term is derived from the term's hash, so no projection
+     * matrix over the vocabulary has to be stored.
+     */
+    private int[] signature(Map<String, Float> vector) {
+        // Only the signs of the projections matter, so the vector need not be normalised
+        double[] projections = new double[tables * bits];
+        for (Map.Entry<String, Float> entry : vector.entrySet()) {
+            long termHash = fnv1a(entry.getKey());
+            float weight = entry.getValue() != null ? entry.getValue() : 0f;
+            for (int j = 0; j < projections.length; j++) {
+                projections[j] += mix(termHash + j * 0x9E3779B97F4A7C15L) < 0 ? -weight : weight;
+            }
+        }
+
+        int[] signature = new int[tables];
+        for (int table = 0; table < tables; table++) {
+            int key = 0;
+            for (int bit = 0; bit < bits; bit++) {
+                if (projections[table * bits + bit] > 0) {
+                    key |= 1 << bit;
+                }
+            }
+            signature[table] = key;
+        }
+        return signature;
+    }
+
+    /**
+     * Id of a term for a vector being stored, counting the vector as one of its users; call
+     * with the write lock held
+     */
+    private int acquireTermId(String term) {
+        Integer id = termIds.get(term);
+        if (id == null) {
+            if (freeTermIds.isEmpty()) {
+                id = termsById.size();
+                termsById.add(term);
+            } else {
+                id = freeTermIds.pop();
+                termsById.set(id, term);
+            }
+            termIds.put(term, id);
+            if (id == termReferences.length) {
+                termReferences = Arrays.copyOf(termReferences, id * 2);
+            }
+        }
+        termReferences[id]++;
+        return id;
+    }
+
+    /**
+     * Drop a removed vector's use of its term ids, freeing those no other vector uses; call
+     * with the write lock held
+     */
+    private void releaseTermIds(TermVector vector) {
+        for (int id : vector.termIds) {
+            if (--termReferences[id] == 0) {
+                termIds.remove(termsById.get(id));
+                termsById.set(id, null);
+                freeTermIds.push(id);
+            }
+        }
+    }
+
+    private static long fnv1a(String term) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : term.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private static long mix(long z) {
+        // SplitMix64 finaliser
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    private static final class SlotBucket {
+        int[] slots = new int[4];
+        int size;
+
+        void add(int slot) {
+            if (size == slots.length) {
+                slots = Arrays.copyOf(slots, size * 2);
+            }
+            slots[size++] = slot;
+        }
+
+        boolean remove(int slot) {
+            for (int i = 0; i < size; i++) {
+                if (slots[i] == slot) {
+                    slots[i] = slots[--size];
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
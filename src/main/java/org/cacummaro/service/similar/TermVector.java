@@ -0,0 +1,72 @@
+package org.cacummaro.service.similar;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.function.ToIntFunction;
+
+/**
+ * Immutable sparse unit vector keyed by interned term ids, sorted for merge-style dot products.
+ */
+final class TermVector {
+
+    final int[] termIds;
+    final float[] weights;
+
+    private TermVector(int[] termIds, float[] weights) {
+        this.termIds = termIds;
+        this.weights = weights;
+    }
+
+    /**
+     * @param termIds Id of each term; a negative id marks a term no stored vector has, which
+     *                still counts towards the norm but matches nothing
+     */
+    static TermVector of(Map<String, Float> vector, ToIntFunction<String> termIds) {
+        long[] packed = new long[vector.size()];
+        float[] raw = new float[vector.size()];
+        int n = 0;
+        for (Map.Entry<String, Float> entry : vector.entrySet()) {
+            // Pack id and original position so one primitive sort orders both arrays
+            packed[n] = ((long) termIds.applyAsInt(entry.getKey()) << 32) | n;
+            raw[n] = entry.getValue() != null ? entry.getValue() : 0f;
+            n++;
+        }
+        Arrays.sort(packed);
+
+        int[] ids = new int[n];
+        float[] weights = new float[n];
+        double magnitude = 0;
+        for (int i = 0; i < n; i++) {
+            ids[i] = (int) (packed[i] >>> 32);
+            weights[i] = raw[(int) packed[i]];
+            magnitude += weights[i] * weights[i];
+        }
+        magnitude = Math.sqrt(magnitude);
+        if (magnitude > 0) {
+            for (int i = 0; i < n; i++) {
+                weights[i] /= magnitude;
+            }
+        }
+        return new TermVector(ids, weights);
+    }
+
+    boolean isEmpty() {
+        return termIds.length == 0;
+    }
+
+    double cosine(TermVector other) {
+        double dot = 0;
+        int i = 0;
+        int j = 0;
+        while (i < termIds.length && j < other.termIds.length) {
+            if (termIds[i] == other.termIds[j]) {
+                dot += weights[i++] * other.weights[j++];
+            } else if (termIds[i] < other.termIds[j]) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        return dot;
+    }
+}
@@ -0,0 +1,296 @@
+package org.cacummaro.service.suggest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Radix trie mapping keys to sets of values, with shortest-completion-first prefix lookup.
+ *
+ * Chains without branches are collapsed into a single edge, so a key adds at most two nodes
+ * however long it is. Edge labels are ranges of the string the key was taken from rather than
+ * copies, which lets every key cut from one title share that title's characters. Children are
+ * kept in sorted parallel arrays keyed by the first label character. Every node also tracks the
+ * distance in characters to its nearest value, so a lookup only expands nodes on the way to the
+ * completions it returns instead of the whole subtree under a short prefix. Not thread-safe.
+ */
+class PrefixTrie<V> {
+
+    private static final char[] NO_FIRSTS = new char[0];
+
+    private final Node<V> root = new Node<>("", 0, 0);
+
+    /**
+     * Map the key {@code source[from, to)} to a value. The trie may keep a reference to
+     * {@code source} for its edge labels.
+     */
+    void put(String source, int from, int to, V value) {
+        List<Node<V>> path = new ArrayList<>();
+        Node<V> node = root;
+        path.add(node);
+        int i = from;
+        while (i < to) {
+            Node<V> child = node.child(source.charAt(i));
+            if (child == null) {
+                child = new Node<>(source, i, to);
+                node.addChild(child);
+                i = to;
+            } else {
+                int matched = child.match(source, i, to);
+                if (matched < child.length()) {
+                    child = split(node, child, matched);
+                }
+                i += matched;
+            }
+            node = child;
+            path.add(node);
+        }
+
+        if (node.values == null) {
+            node.values = new LinkedHashSet<>(2);
+        }
+        node.values.add(value);
+        updateShortest(path);
+    }
+
+    void remove(String source, int from, int to, V value) {
+        // Walk down remembering the path so emptied nodes can be pruned on the way back
+        List<Node<V>> path = new ArrayList<>();
+        Node<V> node = root;
+        path.add(node);
+        int i = from;
+        while (i < to) {
+            Node<V> child = node.child(source.charAt(i));
+            if (child == null || child.match(source, i, to) < child.length()) {
+                return;
+            }
+            i += child.length();
+            node = child;
+            path.add(node);
+        }
+
+        if (node.values == null || !node.values.remove(value)) {
+            return;
+        }
+        if (node.values.isEmpty()) {
+            node.values = null;
+        }
+        for (int depth = path.size() - 1; depth > 0; depth--) {
+            Node<V> current = path.get(depth);
+            Node<V> parent = path.get(depth - 1);
+            if (current.isEmpty()) {
+                parent.removeChild(current.first());
+            } else if (current.values == null && current.size == 1) {
+                // A value-less node with one child is no longer a branch point
+                parent.replaceChild(merge(current, current.children[0]));
+                path.set(depth, parent.child(current.first()));
+            }
+        }
+        updateShortest(path);
+    }
+
+    /**
+     * Collect up to {@code limit} distinct values whose key starts with {@code prefix}.
+     * Shorter keys come first, so the walk stops as soon as enough values are found.
+     */
+    void collect(String prefix, int limit, Collection<V> into) {
+        Node<V> node = root;
+        // Characters left on the last edge after the prefix ends inside it
+        int overshoot = 0;
+        int i = 0;
+        while (i < prefix.length()) {
+            Node<V> child = node.child(prefix.charAt(i));
+            if (child == null) {
+                return;
+            }
+            int matched = child.match(prefix, i, prefix.length());
+            if (i + matched < prefix.length() && matched < child.length()) {
+                return;
+            }
+            overshoot = child.length() - matched;
+            i += matched;
+            node = child;
+        }
+
+        // Best-first on depth + distance to the nearest value: that bound is exact, so values pop
+        // out in order of key length and only the nodes leading to them are expanded
+        Set<V> seen = new LinkedHashSet<>();
+        PriorityQueue<Candidate<V>> queue = new PriorityQueue<>();
+        long sequence = 0;
+        queue.add(new Candidate<>(node, overshoot, sequence++));
+        while (!queue.isEmpty() && seen.size() < limit) {
+            Candidate<V> current = queue.poll();
+            if (current.node.values != null) {
+                for (V value : current.node.values) {
+                    if (seen.add(value) && seen.size() == limit) {
+                        break;
+                    }
+                }
+            }
+            for (int c = 0; c < current.node.size; c++) {
+                Node<V> child = current.node.children[c];
+                queue.add(new Candidate<>(child, current.depth + child.length(), sequence++));
+            }
+        }
+        into.addAll(seen);
+    }
+
+    /**
+     * Split the edge into {@code child} after {@code at} characters
+     *
+     * @return The new node at the split point
+     */
+    private Node<V> split(Node<V> parent, Node<V> child, int at) {
+        Node<V> middle = new Node<>(child.source, child.from, child.from + at);
+        child.from += at;
+        middle.addChild(child);
+        middle.shortest = child.shortest + child.length();
+        parent.replaceChild(middle);
+        return middle;
+    }
+
+    /**
+     * Join a value-less single-child node with its child into one edge
+     */
+    private Node<V> merge(Node<V> upper, Node<V> lower) {
+        if (upper.source == lower.source && upper.to == lower.from) {
+            lower.from = upper.from;
+        } else {
+            lower.source = upper.label() + lower.label();
+            lower.from = 0;
+            lower.to = lower.source.length();
+        }
+        return lower;
+    }
+
+    private static <V> void updateShortest(List<Node<V>> path) {
+        for (int depth = path.size() - 1; depth >= 0; depth--) {
+            path.get(depth).updateShortest();
+        }
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static <V> Node<V>[] newChildren(int length) {
+        return (Node<V>[]) new Node[length];
+    }
+
+    private static final class Node<V> {
+        // Label of the edge leading here: source[from, to)
+        String source;
+        int from;
+        int to;
+        char[] firsts = NO_FIRSTS;
+        Node<V>[] children;
+        int size;
+        Set<V> values;
+        int shortest = Integer.MAX_VALUE;
+
+        Node(String source, int from, int to) {
+            this.source = source;
+            this.from = from;
+            this.to = to;
+        }
+
+        int length() {
+            return to - from;
+        }
+
+        char first() {
+            return source.charAt(from);
+        }
+
+        String label() {
+            return source.substring(from, to);
+        }
+
+        /**
+         * @return Number of leading label characters equal to {@code text[start, end)}
+         */
+        int match(String text, int start, int end) {
+            int limit = Math.min(length(), end - start);
+            int matched = 0;
+            while (matched < limit && source.charAt(from + matched) == text.charAt(start + matched)) {
+                matched++;
+            }
+            return matched;
+        }
+
+        Node<V> child(char first) {
+            int index = Arrays.binarySearch(firsts, 0, size, first);
+            return index >= 0 ? children[index] : null;
+        }
+
+        void addChild(Node<V> child) {
+            int insertAt = -Arrays.binarySearch(firsts, 0, size, child.first()) - 1;
+            if (size == firsts.length) {
+                int capacity = Math.max(2, size * 2);
+                firsts = Arrays.copyOf(firsts, capacity);
+                children = children == null ? newChildren(capacity) : Arrays.copyOf(children, capacity);
+            }
+            System.arraycopy(firsts, insertAt, firsts, insertAt + 1, size - insertAt);
+            System.arraycopy(children, insertAt, children, insertAt + 1, size - insertAt);
+            firsts[insertAt] = child.first();
+            children[insertAt] = child;
+            size++;
+        }
+
+        void replaceChild(Node<V> child) {
+            children[Arrays.binarySearch(firsts, 0, size, child.first())] = child;
+        }
+
+        void removeChild(char first) {
+            int index = Arrays.binarySearch(firsts, 0, size, first);
+            if (index < 0) {
+                return;
+            }
+            System.arraycopy(firsts, index + 1, firsts, index, size - index - 1);
+            System.arraycopy(children, index + 1, children, index, size - index - 1);
+            size--;
+            children[size] = null;
+        }
+
+        boolean isEmpty() {
+            return size == 0 && values == null;
+        }
+
+        void updateShortest() {
+            if (values != null) {
+                shortest = 0;
+                return;
+            }
+            int best = Integer.MAX_VALUE;
+            for (int i = 0; i < size; i++) {
+                if (children[i].shortest != Integer.MAX_VALUE) {
+                    best = Math.min(best, children[i].shortest + children[i].length());
+                }
+            }
+            shortest = best;
+        }
+    }
+
+    private static final class Candidate<V> implements Comparable<Candidate<V>> {
+        final Node<V> node;
+        final int depth;
+        final long sequence;
+
+        Candidate(Node<V> node, int depth, long sequence) {
+            this.node = node;
+            this.depth = depth;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Candidate<V> other) {
+            int byLength = Long.compare((long) depth + node.shortest, (long) other.depth + other.node.shortest);
+            if (byLength != 0) {
+                return byLength;
+            }
+            // Among equally short completions go deep first, otherwise ties fan out breadth-first
+            return depth != other.depth ? Integer.compare(other.depth, depth) : Long.compare(sequence, other.sequence);
+        }
+    }
+}
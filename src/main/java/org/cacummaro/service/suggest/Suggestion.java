@@ -0,0 +1,51 @@
+package org.cacummaro.service.suggest;
+
+import java.util.Objects;
+
+/**
+ * A type-ahead suggestion: either a document title (with its id) or a category name.
+ */
+public class Suggestion {
+
+    public static final String TYPE_TITLE = "title";
+    public static final String TYPE_CATEGORY = "category";
+
+    private final String text;
+    private final String type;
+    private final String documentId;
+
+    public Suggestion(String text, String type, String documentId) {
+        this.text = text;
+        this.type = type;
+        this.documentId = documentId;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public String getDocumentId() {
+        return documentId;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Suggestion)) {
+            return false;
+        }
+        Suggestion that = (Suggestion) o;
+        return text.equals(that.text) && type.equals(that.type) && Objects.equals(documentId, that.documentId);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(text, type, documentId);
+    }
+}
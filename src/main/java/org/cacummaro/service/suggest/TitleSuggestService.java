@@ -0,0 +1,272 @@
+package org.cacummaro.service.suggest;
+
+import org.cacummaro.domain.Category;
+import org.cacummaro.domain.CategoryAssignment;
+import org.cacummaro.domain.Document;
+import org.cacummaro.repository.CategoryRepository;
+import org.cacummaro.repository.CursorPage;
+import org.cacummaro.repository.DocumentRepository;
+import org.cacummaro.service.changes.DocumentChangeListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+/**
+ * In-memory type-ahead over document titles and category names
+ *
+ * Titles are keyed by their normalised text and by every word start, so "learn" finds
+ * "Machine Learning". All keys of a title share one copy of its normalised text in the
+ * radix trie, so memory grows with the number of titles and not with their length. The trie
+ * is loaded from the corpus at startup and then kept current by ingestion and deletion on
+ * this node and by the _changes feed for everything else.
+ */
+@Service
+public class TitleSuggestService implements DocumentChangeListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(TitleSuggestService.class);
+
+    private static final Pattern DIACRITICS = Pattern.compile("\\p{M}+");
+    private static final Pattern SEPARATORS = Pattern.compile("[^\\p{L}\\p{N}]+");
+    private static final int MAX_KEY_LENGTH = 120;
+    private static final int MAX_WORD_STARTS = 12;
+    private static final int LOAD_PAGE_SIZE = 500;
+
+    @Value("${cacummaro.suggest.enabled:true}")
+    private boolean enabled;
+
+    private final DocumentRepository documentRepository;
+    private final CategoryRepository categoryRepository;
+
+    private final PrefixTrie<Suggestion> trie = new PrefixTrie<>();
+    private final Map<String, Suggestion> titlesByDocument = new HashMap<>();
+    private final Set<String> categoryNames = new HashSet<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // Deletions seen while the initial load runs, so the load cannot resurrect them
+    private Set<String> deletedDuringLoad = new HashSet<>();
+    private volatile boolean loaded;
+
+    @Autowired
+    public TitleSuggestService(DocumentRepository documentRepository, CategoryRepository categoryRepository) {
+        this.documentRepository = documentRepository;
+        this.categoryRepository = categoryRepository;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void load() {
+        if (!enabled) {
+            logger.info("Title suggestions are disabled. Set cacummaro.suggest.enabled=true to enable");
+            return;
+        }
+
+        Thread loader = new Thread(() -> {
+            try {
+                long start = System.currentTimeMillis();
+                for (Category category : categoryRepository.findAll()) {
+                    addCategory(category.getName());
+                }
+
+                long documents = 0;
+                String cursor = null;
+                do {
+                    CursorPage<Document> page = documentRepository.findAll(cursor, LOAD_PAGE_SIZE);
+                    lock.writeLock().lock();
+                    try {
+                        for (Document document : page.getContent()) {
+                            if (!deletedDuringLoad.contains(document.getId())) {
+                                putDocument(document);
+                            }
+                        }
+                    } finally {
+                        lock.writeLock().unlock();
+                    }
+                    documents += page.getContent().size();
+                    cursor = page.getNextCursor();
+                } while (cursor != null);
+
+                lock.writeLock().lock();
+                try {
+                    deletedDuringLoad = null;
+                    loaded = true;
+                } finally {
+                    lock.writeLock().unlock();
+                }
+                logger.info("Loaded {} titles and {} categories for suggestions in {} ms",
+                        documents, categoryNames.size(), System.currentTimeMillis() - start);
+            } catch (Exception e) {
+                logger.error("Failed to load title suggestions: {}", e.getMessage(), e);
+            }
+        }, "title-suggest-loader");
+        loader.setDaemon(true);
+        loader.start();
+    }
+
+    /**
+     * Suggest titles and categories starting with the given text
+     *
+     * @param prefix Text typed so far; case, accents and punctuation are ignored
+     * @param limit Maximum number of suggestions
+     * @return Suggestions, shortest completions first
+     */
+    public List<Suggestion> suggest(String prefix, int limit) {
+        String key = normalize(prefix);
+        if (!enabled || key.isEmpty() || limit <= 0) {
+            return List.of();
+        }
+
+        List<Suggestion> suggestions = new ArrayList<>(limit);
+        lock.readLock().lock();
+        try {
+            trie.collect(key, limit, suggestions);
+        } finally {
+            lock.readLock().unlock();
+        }
+        return suggestions;
+    }
+
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    @Override
+    public void onDocumentChanged(Document document) {
+        addDocument(document);
+    }
+
+    @Override
+    public void onDocumentDeleted(String documentId) {
+        removeDocument(documentId);
+    }
+
+    /**
+     * Add or update a document's title and its categories
+     */
+    public void addDocument(Document document) {
+        if (!enabled) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            putDocument(document);
+            if (document.getCategories() != null) {
+                for (CategoryAssignment assignment : document.getCategories()) {
+                    addCategoryLocked(assignment.getName());
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void removeDocument(String documentId) {
+        if (!enabled) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            removeDocumentLocked(documentId);
+            if (deletedDuringLoad != null) {
+                deletedDuringLoad.add(documentId);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public String getListenerName() {
+        return "title-suggest";
+    }
+
+    private void addCategory(String name) {
+        lock.writeLock().lock();
+        try {
+            addCategoryLocked(name);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void addCategoryLocked(String name) {
+        if (name == null || !categoryNames.add(name)) {
+            return;
+        }
+        index(name, new Suggestion(name, Suggestion.TYPE_CATEGORY, null), true);
+    }
+
+    private void putDocument(Document document) {
+        Suggestion existing = titlesByDocument.get(document.getId());
+        if (existing != null && existing.getText().equals(document.getTitle())) {
+            return;
+        }
+        removeDocumentLocked(document.getId());
+        if (document.getTitle() == null || document.getTitle().isBlank()) {
+            return;
+        }
+
+        Suggestion suggestion = new Suggestion(document.getTitle(), Suggestion.TYPE_TITLE, document.getId());
+        index(document.getTitle(), suggestion, true);
+        titlesByDocument.put(document.getId(), suggestion);
+    }
+
+    private void removeDocumentLocked(String documentId) {
+        Suggestion existing = titlesByDocument.remove(documentId);
+        if (existing != null) {
+            index(existing.getText(), existing, false);
+        }
+    }
+
+    /**
+     * Add or remove the suggestion under the text's leading word starts, each key cut to
+     * {@code MAX_KEY_LENGTH} characters of the same normalised string
+     */
+    private void index(String text, Suggestion suggestion, boolean add) {
+        String normalized = normalize(text);
+        int[] starts = new int[MAX_WORD_STARTS];
+        int count = 0;
+        for (int start = 0; start >= 0 && start < normalized.length() && count < MAX_WORD_STARTS; count++) {
+            starts[count] = start;
+            int space = normalized.indexOf(' ', start);
+            start = space >= 0 ? space + 1 : -1;
+        }
+        if (count == 0) {
+            return;
+        }
+
+        // Only keep the characters some key can reach
+        String keySource = normalized.substring(0, Math.min(normalized.length(), starts[count - 1] + MAX_KEY_LENGTH));
+        for (int i = 0; i < count; i++) {
+            int end = Math.min(keySource.length(), starts[i] + MAX_KEY_LENGTH);
+            if (add) {
+                trie.put(keySource, starts[i], end, suggestion);
+            } else {
+                trie.remove(keySource, starts[i], end, suggestion);
+            }
+        }
+    }
+
+    static String normalize(String text) {
+        if (text == null) {
+            return "";
+        }
+        String decomposed = Normalizer.normalize(text, Normalizer.Form.NFKD);
+        String stripped = DIACRITICS.matcher(decomposed).replaceAll("");
+        return SEPARATORS.matcher(stripped.toLowerCase(Locale.ROOT)).replaceAll(" ").trim();
+    }
+}
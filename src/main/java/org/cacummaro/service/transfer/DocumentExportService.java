@@ -0,0 +1,139 @@
+package org.cacummaro.service.transfer;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.commons.io.IOUtils;
+import org.cacummaro.domain.Document;
+import org.cacummaro.repository.CursorPage;
+import org.cacummaro.repository.DocumentRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Streams the whole corpus to an output stream.
+ *
+ * Documents are read one cursor page at a time and written straight through,
+ * so memory use depends on the page size and not on the size of the corpus.
+ */
+@Service
+public class DocumentExportService {
+
+    private static final Logger logger = LoggerFactory.getLogger(DocumentExportService.class);
+
+    static final String DOCUMENTS_DIR = "documents/";
+    static final String ATTACHMENTS_DIR = "attachments/";
+
+    @Value("${cacummaro.transfer.export-page-size:200}")
+    private int pageSize;
+
+    private final DocumentRepository documentRepository;
+    private final ObjectMapper objectMapper;
+
+    @Autowired
+    public DocumentExportService(DocumentRepository documentRepository, ObjectMapper objectMapper) {
+        this.documentRepository = documentRepository;
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * Export every document in the given format
+     *
+     * @param format Output format
+     * @param out Destination stream; flushed but not closed
+     * @return Number of documents written
+     * @throws IOException if writing to the stream fails
+     */
+    public long export(TransferFormat format, OutputStream out) throws IOException {
+        long exported;
+        if (format == TransferFormat.ZIP) {
+            ZipOutputStream zip = new ZipOutputStream(out);
+            exported = forEachDocument(document -> writeZipEntries(document, zip));
+            zip.finish();
+        } else {
+            exported = forEachDocument(document -> {
+                out.write(objectMapper.writeValueAsBytes(document));
+                out.write('\n');
+            });
+        }
+        out.flush();
+
+        logger.info("Exported {} documents as {}", exported, format);
+        return exported;
+    }
+
+    private long forEachDocument(DocumentWriter writer) throws IOException {
+        long count = 0;
+        String cursor = null;
+        do {
+            CursorPage<Document> page = documentRepository.findAll(cursor, pageSize);
+            for (Document document : page.getContent()) {
+                writer.write(document);
+                count++;
+            }
+            cursor = page.getNextCursor();
+        } while (cursor != null);
+        return count;
+    }
+
+    private void writeZipEntries(Document document, ZipOutputStream zip) throws IOException {
+        String entryId = entryId(document.getId());
+
+        zip.putNextEntry(new ZipEntry(DOCUMENTS_DIR + entryId + ".json"));
+        zip.write(objectMapper.writeValueAsBytes(document));
+        zip.closeEntry();
+
+        for (String attachmentName : attachmentNames(document)) {
+            InputStream attachment;
+            try {
+                attachment = documentRepository.getAttachmentStream(document.getId(), attachmentName);
+            } catch (RuntimeException e) {
+                // A missing attachment should not abort the whole export
+                logger.warn("Skipping attachment {} of document {}: {}", attachmentName, document.getId(), e.getMessage());
+                continue;
+            }
+            // Once the entry is open, a failure would leave a truncated file in the archive that
+            // looks complete, so it fails the export instead
+            try (attachment) {
+                zip.putNextEntry(new ZipEntry(ATTACHMENTS_DIR + entryId + "/" + attachmentName));
+                IOUtils.copy(attachment, zip);
+                zip.closeEntry();
+            } catch (IOException | RuntimeException e) {
+                throw new IOException("Failed to export attachment " + attachmentName
+                        + " of document " + document.getId() + ": " + e.getMessage(), e);
+            }
+        }
+    }
+
+    private Set<String> attachmentNames(Document document) {
+        Set<String> names = new LinkedHashSet<>();
+        if (document.getAttachments() != null) {
+            names.addAll(document.getAttachments().keySet());
+        }
+        if (document.getPdfAttachmentName() != null && !document.getPdfAttachmentName().isEmpty()) {
+            names.add(document.getPdfAttachmentName());
+        }
+        return names;
+    }
+
+    /**
+     * Document IDs contain '|', which is not a valid file name character on Windows
+     */
+    static String entryId(String documentId) {
+        return documentId.replace("|", "-");
+    }
+
+    @FunctionalInterface
+    private interface DocumentWriter {
+        void write(Document document) throws IOException;
+    }
+}
@@ -0,0 +1,307 @@
+package org.cacummaro.service.transfer;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.apache.commons.io.IOUtils;
+import org.cacummaro.domain.Document;
+import org.cacummaro.repository.BulkWriteFailure;
+import org.cacummaro.repository.DocumentRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Streams documents from an export into CouchDB.
+ *
+ * Documents are written through _bulk_docs in batches; attachments of a stored batch are
+ * uploaded concurrently, sequentially per document so each upload can chain the revision
+ * returned by the previous one. Accepts the formats written by {@link DocumentExportService}.
+ */
+@Service
+public class DocumentImportService {
+
+    private static final Logger logger = LoggerFactory.getLogger(DocumentImportService.class);
+    private static final String DEFAULT_CONTENT_TYPE = "application/octet-stream";
+
+    @Value("${cacummaro.transfer.import-batch-size:500}")
+    private int batchSize;
+
+    @Value("${cacummaro.transfer.import-max-pending-bytes:67108864}")
+    private long maxPendingBytes;
+
+    @Value("${cacummaro.transfer.import-attachment-concurrency:4}")
+    private int attachmentConcurrency;
+
+    private final DocumentRepository documentRepository;
+    private final ObjectMapper objectMapper;
+    private ExecutorService attachmentExecutor;
+
+    @Autowired
+    public DocumentImportService(DocumentRepository documentRepository, ObjectMapper objectMapper) {
+        this.documentRepository = documentRepository;
+        this.objectMapper = objectMapper;
+    }
+
+    @PostConstruct
+    public void initialize() {
+        attachmentExecutor = Executors.newFixedThreadPool(Math.max(1, attachmentConcurrency));
+    }
+
+    @PreDestroy
+    public void cleanup() {
+        attachmentExecutor.shutdownNow();
+    }
+
+    /**
+     * Import every document in the stream
+     *
+     * @param format Input format
+     * @param in Source stream; not closed
+     * @return Per-item import report
+     * @throws IOException if the stream cannot be read
+     */
+    public ImportReport importDocuments(TransferFormat format, InputStream in) throws IOException {
+        long startTime = System.currentTimeMillis();
+        ImportReport report = new ImportReport();
+        Batch batch = new Batch();
+
+        if (format == TransferFormat.ZIP) {
+            readZip(in, batch, report);
+        } else {
+            readNdjson(in, batch, report);
+        }
+        flush(batch, report);
+
+        report.setDurationMs(System.currentTimeMillis() - startTime);
+        logger.info("Imported {}/{} documents ({} failed) in {} ms",
+                report.getImported(), report.getReceived(), report.getFailed(), report.getDurationMs());
+        return report;
+    }
+
+    private void readNdjson(InputStream in, Batch batch, ImportReport report) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        String line;
+        long lineNumber = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            if (line.isBlank()) {
+                continue;
+            }
+            addDocument(line.getBytes(StandardCharsets.UTF_8), "line " + lineNumber, batch, report);
+        }
+    }
+
+    private void readZip(InputStream in, Batch batch, ImportReport report) throws IOException {
+        ZipInputStream zip = new ZipInputStream(in);
+        ZipEntry entry;
+        while ((entry = zip.getNextEntry()) != null) {
+            String name = entry.getName();
+            if (entry.isDirectory()) {
+                continue;
+            }
+
+            if (name.startsWith(DocumentExportService.DOCUMENTS_DIR) && name.endsWith(".json")) {
+                String entryId = name.substring(DocumentExportService.DOCUMENTS_DIR.length(), name.length() - ".json".length());
+                // Attachments follow their document, so only flush when the next document starts
+                PendingDocument pending = addDocument(IOUtils.toByteArray(zip), name, batch, report);
+                if (pending != null) {
+                    batch.byEntryId.put(entryId, pending);
+                }
+            } else if (name.startsWith(DocumentExportService.ATTACHMENTS_DIR)) {
+                String path = name.substring(DocumentExportService.ATTACHMENTS_DIR.length());
+                int separator = path.indexOf('/');
+                PendingDocument pending = separator > 0 ? batch.byEntryId.get(path.substring(0, separator)) : null;
+                if (pending == null) {
+                    logger.debug("Skipping attachment entry without a preceding document: {}", name);
+                    continue;
+                }
+                byte[] data = IOUtils.toByteArray(zip);
+                pending.attachments.add(new PendingAttachment(path.substring(separator + 1), data));
+                batch.pendingBytes += data.length;
+            }
+        }
+    }
+
+    private PendingDocument addDocument(byte[] json, String source, Batch batch, ImportReport report) {
+        if (batch.documents.size() >= batchSize || batch.pendingBytes >= maxPendingBytes) {
+            flush(batch, report);
+        }
+
+        report.documentReceived();
+        PendingDocument pending;
+        try {
+            pending = toPendingDocument(objectMapper.readTree(json));
+        } catch (IOException | IllegalArgumentException e) {
+            report.documentFailed(new BulkWriteFailure(source, "invalid_document", e.getMessage()));
+            return null;
+        }
+
+        batch.documents.add(pending);
+        batch.pendingBytes += json.length;
+        return pending;
+    }
+
+    private PendingDocument toPendingDocument(JsonNode node) {
+        if (!node.isObject()) {
+            throw new IllegalArgumentException("Expected a JSON object");
+        }
+        ObjectNode object = (ObjectNode) node;
+
+        JsonNode type = object.get("type");
+        if (type != null && !"document".equals(type.asText())) {
+            throw new IllegalArgumentException("Unsupported document type: " + type.asText());
+        }
+
+        // Content types come from the exported stubs; the stubs themselves cannot be stored
+        Map<String, String> contentTypes = new HashMap<>();
+        JsonNode attachments = object.remove("_attachments");
+        if (attachments != null) {
+            attachments.fields().forEachRemaining(field ->
+                    contentTypes.put(field.getKey(), field.getValue().path("content_type").asText(DEFAULT_CONTENT_TYPE)));
+        }
+        // Revisions belong to the source database
+        object.remove("_rev");
+
+        Document document = objectMapper.convertValue(object, Document.class);
+        if (document.getId() == null || document.getId().isEmpty()) {
+            document.setId("doc|" + UUID.randomUUID());
+        }
+        return new PendingDocument(document, contentTypes);
+    }
+
+    private void flush(Batch batch, ImportReport report) {
+        if (batch.documents.isEmpty()) {
+            return;
+        }
+
+        List<Document> documents = batch.documents.stream()
+                .map(pending -> pending.document)
+                .collect(Collectors.toList());
+
+        Set<String> failedIds = new HashSet<>();
+        try {
+            for (BulkWriteFailure failure : documentRepository.saveAll(documents)) {
+                failedIds.add(failure.getId());
+                report.documentFailed(failure);
+            }
+            report.documentsImported(documents.size() - failedIds.size());
+        } catch (RuntimeException e) {
+            logger.error("Bulk write of {} documents failed: {}", documents.size(), e.getMessage(), e);
+            for (Document document : documents) {
+                report.documentFailed(new BulkWriteFailure(document.getId(), "bulk_write_failed", e.getMessage()));
+            }
+            batch.clear();
+            return;
+        }
+
+        List<Future<List<AttachmentResult>>> uploads = new ArrayList<>();
+        for (PendingDocument pending : batch.documents) {
+            if (!pending.attachments.isEmpty() && !failedIds.contains(pending.document.getId())) {
+                uploads.add(attachmentExecutor.submit(() -> uploadAttachments(pending)));
+            }
+        }
+
+        for (Future<List<AttachmentResult>> upload : uploads) {
+            try {
+                for (AttachmentResult result : upload.get()) {
+                    if (result.failure == null) {
+                        report.attachmentImported();
+                    } else {
+                        report.attachmentFailed(result.failure);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Import interrupted", e);
+            } catch (ExecutionException e) {
+                logger.error("Attachment upload task failed: {}", e.getCause().getMessage(), e.getCause());
+            }
+        }
+
+        logger.debug("Flushed import batch: {} documents, {} with attachments", documents.size(), uploads.size());
+        batch.clear();
+    }
+
+    private List<AttachmentResult> uploadAttachments(PendingDocument pending) {
+        List<AttachmentResult> results = new ArrayList<>();
+        String documentId = pending.document.getId();
+        String revision = pending.document.getRevision();
+
+        for (PendingAttachment attachment : pending.attachments) {
+            String contentType = pending.contentTypes.get(attachment.name);
+            if (contentType == null) {
+                contentType = Optional.ofNullable(URLConnection.guessContentTypeFromName(attachment.name))
+                        .orElse(DEFAULT_CONTENT_TYPE);
+            }
+            try {
+                revision = documentRepository.saveAttachment(documentId, revision, attachment.name, attachment.data, contentType);
+                results.add(new AttachmentResult(null));
+            } catch (RuntimeException e) {
+                results.add(new AttachmentResult(new BulkWriteFailure(
+                        documentId + "/" + attachment.name, "attachment_failed", e.getMessage())));
+            }
+        }
+        return results;
+    }
+
+    private static class Batch {
+        final List<PendingDocument> documents = new ArrayList<>();
+        final Map<String, PendingDocument> byEntryId = new HashMap<>();
+        long pendingBytes;
+
+        void clear() {
+            documents.clear();
+            byEntryId.clear();
+            pendingBytes = 0;
+        }
+    }
+
+    private static class PendingDocument {
+        final Document document;
+        final Map<String, String> contentTypes;
+        final List<PendingAttachment> attachments = new ArrayList<>();
+
+        PendingDocument(Document document, Map<String, String> contentTypes) {
+            this.document = document;
+            this.contentTypes = contentTypes;
+        }
+    }
+
+    private static class PendingAttachment {
+        final String name;
+        final byte[] data;
+
+        PendingAttachment(String name, byte[] data) {
+            this.name = name;
+            this.data = data;
+        }
+    }
+
+    private static class AttachmentResult {
+        final BulkWriteFailure failure;
+
+        AttachmentResult(BulkWriteFailure failure) {
+            this.failure = failure;
+        }
+    }
+}
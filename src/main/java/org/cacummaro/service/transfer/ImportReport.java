@@ -0,0 +1,91 @@
+package org.cacummaro.service.transfer;
+
+import org.cacummaro.repository.BulkWriteFailure;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Outcome of a bulk import. Only the first {@link #MAX_REPORTED_FAILURES} failures are
+ * listed individually so the report stays small when a whole corpus conflicts.
+ */
+public class ImportReport {
+
+    static final int MAX_REPORTED_FAILURES = 1000;
+
+    private long received;
+    private long imported;
+    private long failed;
+    private long attachmentsImported;
+    private long attachmentsFailed;
+    private long durationMs;
+    private final List<BulkWriteFailure> failures = new ArrayList<>();
+
+    void documentReceived() {
+        received++;
+    }
+
+    void documentsImported(long count) {
+        imported += count;
+    }
+
+    void documentFailed(BulkWriteFailure failure) {
+        failed++;
+        addFailure(failure);
+    }
+
+    void attachmentImported() {
+        attachmentsImported++;
+    }
+
+    void attachmentFailed(BulkWriteFailure failure) {
+        attachmentsFailed++;
+        addFailure(failure);
+    }
+
+    private void addFailure(BulkWriteFailure failure) {
+        if (failures.size() < MAX_REPORTED_FAILURES) {
+            failures.add(failure);
+        }
+    }
+
+    void setDurationMs(long durationMs) {
+        this.durationMs = durationMs;
+    }
+
+    public long getReceived() {
+        return received;
+    }
+
+    public long getImported() {
+        return imported;
+    }
+
+    public long getFailed() {
+        return failed;
+    }
+
+    public long getAttachmentsImported() {
+        return attachmentsImported;
+    }
+
+    public long getAttachmentsFailed() {
+        return attachmentsFailed;
+    }
+
+    public long getDurationMs() {
+        return durationMs;
+    }
+
+    public double getDocumentsPerSecond() {
+        return durationMs > 0 ? imported * 1000.0 / durationMs : imported;
+    }
+
+    public List<BulkWriteFailure> getFailures() {
+        return failures;
+    }
+
+    public boolean isFailuresTruncated() {
+        return failed + attachmentsFailed > failures.size();
+    }
+}
@@ -0,0 +1,40 @@
+package org.cacummaro.service.transfer;
+
+/**
+ * Wire formats for corpus export and import.
+ *
+ * NDJSON carries one document per line without attachments. ZIP carries
+ * {@code documents/<id>.json} entries, each followed by its
+ * {@code attachments/<id>/<name>} entries.
+ */
+public enum TransferFormat {
+    NDJSON("application/x-ndjson", "ndjson"),
+    ZIP("application/zip", "zip");
+
+    private final String contentType;
+    private final String extension;
+
+    TransferFormat(String contentType, String extension) {
+        this.contentType = contentType;
+        this.extension = extension;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public String getExtension() {
+        return extension;
+    }
+
+    public static TransferFormat fromString(String format) {
+        if (format != null) {
+            for (TransferFormat value : values()) {
+                if (value.name().equalsIgnoreCase(format) || value.extension.equalsIgnoreCase(format)) {
+                    return value;
+                }
+            }
+        }
+        throw new IllegalArgumentException("Unsupported format: " + format + " (expected ndjson or zip)");
+    }
+}